@@ -0,0 +1,129 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number and the total payload bytes of the requests that a server
+ * handles at a time. The counters are updated without locking.
+ * @author Petri Kannisto
+ */
+final class AdmissionController
+{
+	private final int m_maxRequests;
+	private final long m_maxBytes;
+	
+	private final AtomicInteger m_requests = new AtomicInteger(0);
+	private final AtomicLong m_bytes = new AtomicLong(0);
+	
+	
+	/**
+	 * Constructor.
+	 * @param maxRequests Maximum number of requests in flight or 0 for no limit.
+	 * @param maxBytes Maximum total payload bytes of requests in flight or 0 for no limit.
+	 */
+	AdmissionController(int maxRequests, long maxBytes)
+	{
+		m_maxRequests = maxRequests;
+		m_maxBytes = maxBytes;
+	}
+	
+	/**
+	 * Tries to admit a request. If admitted, the caller must call release once the request
+	 * has been handled.
+	 * @param bytes Payload size.
+	 * @return True if admitted, false if a limit would be exceeded.
+	 */
+	boolean tryAdmit(int bytes)
+	{
+		if (!tryAcquireRequest())
+		{
+			return false;
+		}
+		
+		if (!tryAcquireBytes(bytes))
+		{
+			m_requests.decrementAndGet();
+			return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Releases an admitted request.
+	 * @param bytes Payload size as given to tryAdmit.
+	 */
+	void release(int bytes)
+	{
+		m_requests.decrementAndGet();
+		m_bytes.addAndGet(-bytes);
+	}
+	
+	/**
+	 * The number of requests in flight.
+	 * @return Number of requests.
+	 */
+	int getRequestsInFlight()
+	{
+		return m_requests.get();
+	}
+	
+	/**
+	 * The total payload bytes of requests in flight.
+	 * @return Bytes.
+	 */
+	long getBytesInFlight()
+	{
+		return m_bytes.get();
+	}
+	
+	private boolean tryAcquireRequest()
+	{
+		while (true)
+		{
+			int current = m_requests.get();
+			
+			if (m_maxRequests > 0 && current >= m_maxRequests)
+			{
+				return false;
+			}
+			
+			if (m_requests.compareAndSet(current, current + 1))
+			{
+				return true;
+			}
+		}
+	}
+	
+	private boolean tryAcquireBytes(int bytes)
+	{
+		while (true)
+		{
+			long current = m_bytes.get();
+			
+			// A request larger than the limit is admitted if nothing else is in
+			// flight; otherwise, it could never be served
+			if (m_maxBytes > 0 && current > 0 && current + bytes > m_maxBytes)
+			{
+				return false;
+			}
+			
+			if (m_bytes.compareAndSet(current, current + bytes))
+			{
+				return true;
+			}
+		}
+	}
+}
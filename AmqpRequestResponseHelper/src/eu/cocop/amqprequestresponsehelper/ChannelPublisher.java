@@ -0,0 +1,399 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Channel;
+
+/**
+ * Publishes messages and acknowledgements to a channel from a single thread. A channel
+ * is not safe for concurrent publishing, whereas the requests and responses of this
+ * library can be sent from any number of threads. Therefore, the callers only add
+ * operations to a lock-free queue, and a dedicated thread performs them on the channel
+ * in the order they were queued.
+ * 
+ * The queue is bounded. If it is full, the callers wait until the thread has made room.
+ * This slows down the callers if the channel cannot keep up, e.g., when the broker
+ * blocks the connection.
+ * 
+ * There is one publisher per channel, shared by every object that uses the channel.
+ * Acquire the publisher with acquire and call release once it is no longer needed.
+ * RabbitMqTransport does this.
+ * The thread ends once each user has released the publisher and the queue is empty.
+ * @author Petri Kannisto
+ */
+final class ChannelPublisher
+{
+	private static final int TYPE_PUBLISH = 0;
+	private static final int TYPE_ACK = 1;
+	private static final int TYPE_NACK = 2;
+	
+	// The maximum number of queued operations
+	static final int MAX_QUEUED = 10000;
+	
+	// The publisher of each channel. Channels are compared by identity.
+	private static final IdentityHashMap<Channel, ChannelPublisher> PUBLISHERS = new IdentityHashMap<>();
+	
+	private final Channel m_channel;
+	private final ConcurrentLinkedQueue<Operation> m_queue = new ConcurrentLinkedQueue<>();
+	private final Thread m_thread;
+	
+	// The number of operations queued or being queued. A caller counts its operation
+	// before checking whether the publisher is running, and the thread ends only once
+	// the count is zero. Therefore, no operation is left in the queue.
+	private final AtomicInteger m_queuedCount = new AtomicInteger(0);
+	
+	// The callers wait here while the queue is full
+	private final Object m_notFull = new Object();
+	
+	// The number of callers waiting for room. Written while holding m_notFull.
+	private volatile int m_blockedCount = 0;
+	
+	// The number of users; protected by the lock of PUBLISHERS
+	private int m_userCount = 0;
+	
+	// Whether the channel is closed once the thread ends. Guarded by PUBLISHERS.
+	private boolean m_closeChannel = false;
+	
+	// Whether the publisher still accepts operations
+	private volatile boolean m_running = true;
+	
+	// Whether the thread is parked or about to park. The callers unpark it only then.
+	private volatile boolean m_waiting = false;
+	
+	
+	private ChannelPublisher(Channel channel)
+	{
+		m_channel = channel;
+		
+		// Daemon thread -> does not prevent the application from exiting
+		m_thread = new Thread(this::run, "ChannelPublisher-" + channel.getChannelNumber());
+		m_thread.setDaemon(true);
+		m_thread.start();
+	}
+	
+	/**
+	 * Returns the publisher of a channel, creating it if necessary.
+	 * @param channel Channel.
+	 * @return Publisher.
+	 */
+	static ChannelPublisher acquire(Channel channel)
+	{
+		synchronized (PUBLISHERS)
+		{
+			ChannelPublisher publisher = PUBLISHERS.get(channel);
+			
+			if (publisher == null)
+			{
+				publisher = new ChannelPublisher(channel);
+				PUBLISHERS.put(channel, publisher);
+			}
+			
+			++publisher.m_userCount;
+			return publisher;
+		}
+	}
+	
+	/**
+	 * Releases the publisher. Once each user has released it, the queued operations
+	 * are performed, and the thread then ends.
+	 */
+	void release()
+	{
+		release(false);
+	}
+	
+	/**
+	 * Releases the publisher. Once each user has released it, the queued operations
+	 * are performed, and the thread then ends.
+	 * @param closeChannel Whether to close the channel once the thread ends.
+	 */
+	void release(boolean closeChannel)
+	{
+		synchronized (PUBLISHERS)
+		{
+			m_closeChannel |= closeChannel;
+			
+			if (--m_userCount > 0)
+			{
+				return;
+			}
+			
+			PUBLISHERS.remove(m_channel);
+			m_running = false;
+		}
+		
+		LockSupport.unpark(m_thread);
+		
+		// The callers waiting for room fail
+		synchronized (m_notFull)
+		{
+			m_notFull.notifyAll();
+		}
+	}
+	
+	/**
+	 * Queues a message to be published.
+	 * @param exchange Exchange.
+	 * @param routingKey Routing key.
+	 * @param props Properties.
+	 * @param body Message body.
+	 * @param failureHandler Notified if publishing fails. Can be null.
+	 * @throws IOException Thrown if the publisher has been released or if interrupted while
+	 * waiting for room in the queue.
+	 */
+	void publish(String exchange, String routingKey, BasicProperties props, byte[] body,
+			ITransport.IFailureHandler failureHandler)
+			throws IOException
+	{
+		Operation op = new Operation(TYPE_PUBLISH, failureHandler);
+		op.m_exchange = exchange;
+		op.m_routingKey = routingKey;
+		op.m_props = props;
+		op.m_body = body;
+		enqueue(op);
+	}
+	
+	/**
+	 * Queues the acknowledgement of a delivery.
+	 * @param deliveryTag Delivery tag.
+	 * @throws IOException Thrown if the publisher has been released or if interrupted while
+	 * waiting for room in the queue.
+	 */
+	void ack(long deliveryTag) throws IOException
+	{
+		Operation op = new Operation(TYPE_ACK, null);
+		op.m_deliveryTag = deliveryTag;
+		enqueue(op);
+	}
+	
+	/**
+	 * Queues the rejection of a delivery.
+	 * @param deliveryTag Delivery tag.
+	 * @param requeue Whether the broker shall requeue the message.
+	 * @throws IOException Thrown if the publisher has been released or if interrupted while
+	 * waiting for room in the queue.
+	 */
+	void nack(long deliveryTag, boolean requeue) throws IOException
+	{
+		Operation op = new Operation(TYPE_NACK, null);
+		op.m_deliveryTag = deliveryTag;
+		op.m_requeue = requeue;
+		enqueue(op);
+	}
+	
+	private void enqueue(Operation op) throws IOException
+	{
+		reserveRoom();
+		
+		// Checking only after counting the operation. If the thread has already seen
+		// the count zero after the release, this check fails.
+		if (!m_running)
+		{
+			m_queuedCount.decrementAndGet();
+			throw new IOException("The publisher of the channel has been released");
+		}
+		
+		m_queue.add(op);
+		
+		if (m_waiting)
+		{
+			LockSupport.unpark(m_thread);
+		}
+	}
+	
+	private void reserveRoom() throws IOException
+	{
+		while (true)
+		{
+			int count = m_queuedCount.get();
+			
+			// The thread itself never waits, as only it can make room. It may queue
+			// operations via the dependent actions of a future that a failure completes.
+			if (count < MAX_QUEUED || Thread.currentThread() == m_thread)
+			{
+				if (m_queuedCount.compareAndSet(count, count + 1))
+				{
+					return;
+				}
+				
+				continue;
+			}
+			
+			// The queue is full. Waiting for the thread to make room.
+			synchronized (m_notFull)
+			{
+				++m_blockedCount;
+				
+				try
+				{
+					while (m_queuedCount.get() >= MAX_QUEUED && m_running)
+					{
+						m_notFull.wait();
+					}
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for room in the publisher queue");
+				}
+				finally
+				{
+					--m_blockedCount;
+				}
+			}
+			
+			if (!m_running)
+			{
+				throw new IOException("The publisher of the channel has been released");
+			}
+		}
+	}
+	
+	private void operationDone()
+	{
+		m_queuedCount.decrementAndGet();
+		
+		// Either a waiting caller sees the decremented count or the count of waiting
+		// callers is seen here
+		if (m_blockedCount > 0)
+		{
+			synchronized (m_notFull)
+			{
+				m_notFull.notifyAll();
+			}
+		}
+	}
+	
+	private void run()
+	{
+		while (true)
+		{
+			Operation op = m_queue.poll();
+			
+			if (op != null)
+			{
+				perform(op);
+				operationDone();
+				continue;
+			}
+			
+			// Nothing to do. If released, quitting once no caller is queuing an operation.
+			if (!m_running)
+			{
+				if (m_queuedCount.get() == 0)
+				{
+					closeChannelIfNeeded();
+					return;
+				}
+				
+				// A caller is between counting its operation and adding or discarding it
+				Thread.yield();
+				continue;
+			}
+			
+			// Checking the queue once more after announcing the wait. Either this
+			// check sees a new operation or the caller sees the flag and unparks.
+			m_waiting = true;
+			
+			if (m_queue.isEmpty() && m_running)
+			{
+				LockSupport.park(this);
+			}
+			
+			m_waiting = false;
+		}
+	}
+	
+	private void closeChannelIfNeeded()
+	{
+		synchronized (PUBLISHERS)
+		{
+			if (!m_closeChannel)
+			{
+				return;
+			}
+		}
+		
+		try
+		{
+			if (m_channel.isOpen())
+			{
+				m_channel.close();
+			}
+		}
+		catch (Exception e)
+		{} // No can do
+	}
+	
+	private void perform(Operation op)
+	{
+		try
+		{
+			switch (op.m_type)
+			{
+			case TYPE_PUBLISH:
+				m_channel.basicPublish(op.m_exchange, op.m_routingKey, op.m_props, op.m_body);
+				break;
+				
+			case TYPE_ACK:
+				m_channel.basicAck(op.m_deliveryTag, false);
+				break;
+				
+			default:
+				m_channel.basicNack(op.m_deliveryTag, false, op.m_requeue);
+				break;
+			}
+		}
+		catch (Exception e)
+		{
+			if (op.m_failureHandler != null)
+			{
+				try
+				{
+					op.m_failureHandler.publishFailed(e);
+				}
+				catch (Exception e2)
+				{} // No can do
+			}
+		}
+	}
+	
+	/**
+	 * A queued operation.
+	 */
+	private static final class Operation
+	{
+		private final int m_type;
+		private final ITransport.IFailureHandler m_failureHandler;
+		private String m_exchange = null;
+		private String m_routingKey = null;
+		private BasicProperties m_props = null;
+		private byte[] m_body = null;
+		private long m_deliveryTag = 0;
+		private boolean m_requeue = false;
+		
+		
+		private Operation(int type, ITransport.IFailureHandler failureHandler)
+		{
+			m_type = type;
+			m_failureHandler = failureHandler;
+		}
+	}
+}
@@ -0,0 +1,177 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of the requests that clients send to a topic. See DefaultMetrics.
+ * @author Petri Kannisto
+ */
+public final class ClientTopicMetrics implements IClientTopicMetricsMXBean
+{
+	private final String m_topic;
+	
+	private final LongAdder m_sent = new LongAdder();
+	private final LongAdder m_inFlight = new LongAdder();
+	
+	// Completed requests by outcome
+	private final LongAdder[] m_outcomes = createAdders(IMetrics.ClientOutcome.values().length);
+	
+	// The latencies of the successful requests
+	private final LatencyHistogram m_latency = new LatencyHistogram();
+	
+	
+	/**
+	 * Constructor.
+	 * @param topic Target topic.
+	 */
+	ClientTopicMetrics(String topic)
+	{
+		m_topic = topic;
+	}
+	
+	/**
+	 * Records a sent request.
+	 */
+	void recordSent()
+	{
+		m_sent.increment();
+		m_inFlight.increment();
+	}
+	
+	/**
+	 * Records a completed request.
+	 * @param outcome Outcome.
+	 * @param latencyNanos Latency in nanoseconds.
+	 */
+	void recordCompleted(IMetrics.ClientOutcome outcome, long latencyNanos)
+	{
+		m_inFlight.decrement();
+		m_outcomes[outcome.ordinal()].increment();
+		
+		// The latencies of failures would distort the distribution
+		if (outcome == IMetrics.ClientOutcome.Success)
+		{
+			m_latency.record(latencyNanos);
+		}
+	}
+	
+	/**
+	 * Returns the number of requests completed with an outcome.
+	 * @param outcome Outcome.
+	 * @return Count.
+	 */
+	public long getCount(IMetrics.ClientOutcome outcome)
+	{
+		return m_outcomes[outcome.ordinal()].sum();
+	}
+	
+	/**
+	 * Returns the latency histogram of the successful requests.
+	 * @return Histogram.
+	 */
+	public LatencyHistogram getLatency()
+	{
+		return m_latency;
+	}
+	
+	@Override
+	public String getTopic()
+	{
+		return m_topic;
+	}
+	
+	@Override
+	public long getRequestsSent()
+	{
+		return m_sent.sum();
+	}
+	
+	@Override
+	public long getInFlight()
+	{
+		return m_inFlight.sum();
+	}
+	
+	@Override
+	public long getSucceeded()
+	{
+		return getCount(IMetrics.ClientOutcome.Success);
+	}
+	
+	@Override
+	public long getTimeouts()
+	{
+		return getCount(IMetrics.ClientOutcome.Timeout);
+	}
+	
+	@Override
+	public long getOverloaded()
+	{
+		return getCount(IMetrics.ClientOutcome.Overloaded);
+	}
+	
+	@Override
+	public long getFailures()
+	{
+		return getCount(IMetrics.ClientOutcome.Failure);
+	}
+	
+	@Override
+	public long getCancelled()
+	{
+		return getCount(IMetrics.ClientOutcome.Cancelled);
+	}
+	
+	@Override
+	public double getLatencyMeanMicros()
+	{
+		return m_latency.getMean() / 1000;
+	}
+	
+	@Override
+	public long getLatencyP50Micros()
+	{
+		return m_latency.getValueAtPercentile(50) / 1000;
+	}
+	
+	@Override
+	public long getLatencyP99Micros()
+	{
+		return m_latency.getValueAtPercentile(99) / 1000;
+	}
+	
+	@Override
+	public long getLatencyP999Micros()
+	{
+		return m_latency.getValueAtPercentile(99.9) / 1000;
+	}
+	
+	@Override
+	public long getLatencyMaxMicros()
+	{
+		return m_latency.getMax() / 1000;
+	}
+	
+	static LongAdder[] createAdders(int count)
+	{
+		LongAdder[] adders = new LongAdder[count];
+		
+		for (int i = 0; i < count; ++i)
+		{
+			adders[i] = new LongAdder();
+		}
+		
+		return adders;
+	}
+}
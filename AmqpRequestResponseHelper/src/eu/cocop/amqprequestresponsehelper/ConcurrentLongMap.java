@@ -0,0 +1,263 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A thread-safe map with primitive long keys. Unlike a map with Long keys, this
+ * does not allocate a key object for each operation. The map is split into segments,
+ * each of which is an open-addressing hash table with a lock of its own. This
+ * keeps the contention low when multiple threads access the map.
+ * @author Petri Kannisto
+ * @param <V> Value type.
+ */
+final class ConcurrentLongMap<V>
+{
+	// Must be a power of two
+	private static final int SEGMENT_COUNT = 16;
+	
+	private final Segment<V>[] m_segments;
+	
+	
+	/**
+	 * Constructor.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	ConcurrentLongMap()
+	{
+		m_segments = new Segment[SEGMENT_COUNT];
+		
+		for (int i = 0; i < SEGMENT_COUNT; ++i)
+		{
+			m_segments[i] = new Segment<>();
+		}
+	}
+	
+	/**
+	 * Adds or replaces a value.
+	 * @param key Key.
+	 * @param value Value. Must not be null.
+	 * @return The previous value or null if none.
+	 */
+	V put(long key, V value)
+	{
+		long hash = mix(key);
+		return segmentFor(hash).put(key, hash, value);
+	}
+	
+	/**
+	 * Returns a value.
+	 * @param key Key.
+	 * @return Value or null if none.
+	 */
+	V get(long key)
+	{
+		long hash = mix(key);
+		return segmentFor(hash).get(key, hash);
+	}
+	
+	/**
+	 * Removes a value.
+	 * @param key Key.
+	 * @return The removed value or null if none.
+	 */
+	V remove(long key)
+	{
+		long hash = mix(key);
+		return segmentFor(hash).remove(key, hash);
+	}
+	
+	/**
+	 * Returns the number of values.
+	 * @return Number of values.
+	 */
+	int size()
+	{
+		int size = 0;
+		
+		for (Segment<V> segment : m_segments)
+		{
+			size += segment.size();
+		}
+		
+		return size;
+	}
+	
+	/**
+	 * Returns a snapshot of the values.
+	 * @return Values.
+	 */
+	List<V> values()
+	{
+		ArrayList<V> retval = new ArrayList<>();
+		
+		for (Segment<V> segment : m_segments)
+		{
+			segment.addValuesTo(retval);
+		}
+		
+		return retval;
+	}
+	
+	private Segment<V> segmentFor(long hash)
+	{
+		// The high bits select the segment, whereas the low bits select the slot
+		return m_segments[(int)(hash >>> 60) & (SEGMENT_COUNT - 1)];
+	}
+	
+	private static long mix(long key)
+	{
+		// The finaliser of the SplitMix64 generator. Sequential keys
+		// would otherwise end up in the same segment.
+		key = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+		key = (key ^ (key >>> 27)) * 0x94d049bb133111ebL;
+		return key ^ (key >>> 31);
+	}
+	
+	/**
+	 * An open-addressing hash table with linear probing.
+	 * @param <V> Value type.
+	 */
+	private static final class Segment<V>
+	{
+		private static final int INITIAL_CAPACITY = 16;
+		
+		// A slot is empty if its value is null
+		private long[] m_keys = new long[INITIAL_CAPACITY];
+		private Object[] m_values = new Object[INITIAL_CAPACITY];
+		private int m_size = 0;
+		
+		
+		synchronized V put(long key, long hash, V value)
+		{
+			int slot = findSlot(key, hash);
+			
+			@SuppressWarnings("unchecked")
+			V previous = (V)m_values[slot];
+			
+			m_keys[slot] = key;
+			m_values[slot] = value;
+			
+			if (previous == null)
+			{
+				++m_size;
+				
+				// Keeping the load factor at most 0.5 to keep the probe sequences short
+				if (m_size * 2 > m_values.length)
+				{
+					resize();
+				}
+			}
+			
+			return previous;
+		}
+		
+		@SuppressWarnings("unchecked")
+		synchronized V get(long key, long hash)
+		{
+			return (V)m_values[findSlot(key, hash)];
+		}
+		
+		synchronized V remove(long key, long hash)
+		{
+			int slot = findSlot(key, hash);
+			
+			@SuppressWarnings("unchecked")
+			V previous = (V)m_values[slot];
+			
+			if (previous == null)
+			{
+				return null;
+			}
+			
+			m_values[slot] = null;
+			--m_size;
+			
+			// Shifting the following entries backwards so that
+			// no probe sequence will contain an empty slot
+			int mask = m_values.length - 1;
+			int empty = slot;
+			int current = (slot + 1) & mask;
+			
+			while (m_values[current] != null)
+			{
+				int home = (int)mix(m_keys[current]) & mask;
+				
+				// Can the entry move to the empty slot? Yes, unless its
+				// home slot is cyclically between the empty and current slots.
+				if (((current - home) & mask) >= ((current - empty) & mask))
+				{
+					m_keys[empty] = m_keys[current];
+					m_values[empty] = m_values[current];
+					m_values[current] = null;
+					empty = current;
+				}
+				
+				current = (current + 1) & mask;
+			}
+			
+			return previous;
+		}
+		
+		synchronized int size()
+		{
+			return m_size;
+		}
+		
+		@SuppressWarnings("unchecked")
+		synchronized void addValuesTo(List<V> list)
+		{
+			for (Object value : m_values)
+			{
+				if (value != null)
+				{
+					list.add((V)value);
+				}
+			}
+		}
+		
+		private int findSlot(long key, long hash)
+		{
+			// Returns either the slot of the key or the empty slot where the key belongs
+			int mask = m_values.length - 1;
+			int slot = (int)hash & mask;
+			
+			while (m_values[slot] != null && m_keys[slot] != key)
+			{
+				slot = (slot + 1) & mask;
+			}
+			
+			return slot;
+		}
+		
+		private void resize()
+		{
+			long[] oldKeys = m_keys;
+			Object[] oldValues = m_values;
+			
+			m_keys = new long[oldKeys.length * 2];
+			m_values = new Object[oldValues.length * 2];
+			
+			for (int i = 0; i < oldValues.length; ++i)
+			{
+				if (oldValues[i] != null)
+				{
+					int slot = findSlot(oldKeys[i], mix(oldKeys[i]));
+					m_keys[slot] = oldKeys[i];
+					m_values[slot] = oldValues[i];
+				}
+			}
+		}
+	}
+}
@@ -7,39 +7,62 @@
 //
 // Author: Petri Kannisto, Tampere University, Finland
 // File created: 3/2020
-// Last modified: 3/2020
+// Last modified: 10/2026
 
 package eu.cocop.amqprequestresponsehelper;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
-import com.rabbitmq.client.DefaultConsumer;
-import com.rabbitmq.client.Envelope;
-import com.rabbitmq.client.ShutdownSignalException;
 import com.rabbitmq.client.AMQP.BasicProperties;
-import com.rabbitmq.client.BuiltinExchangeType;
 import com.rabbitmq.client.Channel;
 
 /**
  * Base class for classes that manage a consumer object bound to a queue.
+ * The messaging occurs via a transport (see ITransport). If the object is created
+ * with a channel, the transport is a RabbitMqTransport created by the object.
  * @author Petri Kannisto
  */
 public abstract class ConsumerHolderBase
 {
-	private final Channel m_channel;
+	// The delays between recovery attempts grow from the initial to the maximum
+	private static final long RECOVERY_DELAY_INITIAL_MS = 100;
+	private static final long RECOVERY_DELAY_MAX_MS = 5000;
+	
+	private static final AtomicInteger RECOVERY_THREAD_COUNTER = new AtomicInteger(0);
+	
 	private final String m_exchange;
 	private final String m_topicName;
 	
-	// Due to server-generated events, there can be a situation
-    // where the consumer is cancelled right after this class
-    // has confirmed it is still active.
-    // Still, m_lockObject at least enables data synchronisation between threads.
-    private final Object m_lockObject = new Object();
+	// What to declare and consume. These are needed again if the object recovers.
+	private final boolean m_directReplyTo;
+	private final String m_queueName;
+	private final boolean m_autoAck;
+	private final int m_prefetchCount;
+	private final Map<String, Object> m_queueArgs;
+	
+	// Creates a new channel for recovery; null if the object does not recover
+	private final IChannelFactory m_channelFactory;
+	
+	// Whether the object has created the transport and therefore closes it.
+	// A transport passed by the caller is left open for other users.
+	private final boolean m_ownsTransport;
+	
+	// The state of the consumer, including the transport. Each delivery
+	// and request reads the state without locking, and each change replaces it atomically.
+	// Due to server-generated events, the consumer may still be cancelled right after
+	// this class has confirmed it is active.
+	private final AtomicReference<ConsumerState> m_state;
 	
-	private String m_consumerTag = null;
+	// Guards the start of consuming if the constructor has not started it
+	private final Object m_startLock = new Object();
+	private volatile boolean m_consumeStarted = false;
 	
-	// This indicates the reason why the object cannot be used if any
-    private String m_consumerInactiveReason = "No consumer created successfully";
+	// The declared queue until consuming starts, or null if not declared yet.
+	// Guarded by the start lock.
+	private String m_declaredQueue = null;
 	
     /**
      * Constructor. Use this when the topic of to consume shall be generated.
@@ -63,79 +86,187 @@ public abstract class ConsumerHolderBase
 	ConsumerHolderBase(Channel channel, String excName, String topic)
 			throws IOException
 	{
-		m_channel = channel;
+		this(channel, excName, topic, false);
+	}
+	
+	/**
+     * Constructor. Use this to choose whether to consume the direct reply-to
+     * pseudo-queue of RabbitMQ. If consumed, no exchange, queue or binding is declared,
+     * and the "reply to" address of the object is the pseudo-queue.
+     * @param channel Channel.
+     * @param excName Exchange name.
+     * @param topic The topic to consume. Ignored if the direct reply-to is consumed.
+     * @param directReplyTo Whether to consume the direct reply-to pseudo-queue.
+     * @throws IOException Thrown if an error occurs.
+     */
+	ConsumerHolderBase(Channel channel, String excName, String topic, boolean directReplyTo)
+			throws IOException
+	{
+		this(channel, excName, topic, directReplyTo, null, true, 0, null);
+	}
+	
+	/**
+     * Constructor. Use this to choose how deliveries are acknowledged.
+     * @param channel Channel.
+     * @param excName Exchange name.
+     * @param topic The topic to consume. Ignored if the direct reply-to is consumed.
+     * @param directReplyTo Whether to consume the direct reply-to pseudo-queue.
+     * @param queueName The name of the queue to consume or null to use a generated name.
+     * A named queue is shared by every consumer that declares the same name.
+     * @param autoAck If true, the broker considers each message acknowledged once delivered.
+     * If false, the subclass must call ack or nack for each delivery.
+     * @param prefetchCount The maximum number of unacknowledged deliveries or 0 for no limit.
+     * Has no effect if autoAck is true.
+     * @param queueArgs Arguments for the queue declaration (such as "x-max-priority") or null if none.
+     * @throws IOException Thrown if an error occurs.
+     */
+	ConsumerHolderBase(Channel channel, String excName, String topic, boolean directReplyTo,
+			String queueName, boolean autoAck, int prefetchCount, Map<String, Object> queueArgs)
+			throws IOException
+	{
+		this(channel, null, excName, topic, directReplyTo, queueName, autoAck, prefetchCount, queueArgs);
+	}
+	
+	/**
+     * Constructor. Use this to create an object that recovers from channel shutdowns.
+     * After a shutdown not initiated by the application, the object creates a new channel
+     * with the factory and declares and consumes again as in the first place. Meanwhile,
+     * expectConsumerIsActive throws. The attempts continue until successful or until
+     * the object is closed. The object closes the channels it has created.
+     * @param channelFactory Creates the channels.
+     * @param excName Exchange name.
+     * @param topic The topic to consume. Ignored if the direct reply-to is consumed.
+     * @param directReplyTo Whether to consume the direct reply-to pseudo-queue.
+     * @param queueName The name of the queue to consume or null to use a generated name.
+     * @param autoAck If true, the broker considers each message acknowledged once delivered.
+     * @param prefetchCount The maximum number of unacknowledged deliveries or 0 for no limit.
+     * @param queueArgs Arguments for the queue declaration or null if none.
+     * @throws IOException Thrown if an error occurs.
+     */
+	ConsumerHolderBase(IChannelFactory channelFactory, String excName, String topic, boolean directReplyTo,
+			String queueName, boolean autoAck, int prefetchCount, Map<String, Object> queueArgs)
+			throws IOException
+	{
+		this(channelFactory.createChannel(), channelFactory, excName, topic, directReplyTo, queueName,
+				autoAck, prefetchCount, queueArgs);
+	}
+	
+	/**
+     * Constructor. Use this to pass both a channel and a channel factory.
+     * @param channel Channel.
+     * @param channelFactory Creates the channels for recovery or null not to recover.
+     * @param excName Exchange name.
+     * @param topic The topic to consume. Ignored if the direct reply-to is consumed.
+     * @param directReplyTo Whether to consume the direct reply-to pseudo-queue.
+     * @param queueName The name of the queue to consume or null to use a generated name.
+     * @param autoAck If true, the broker considers each message acknowledged once delivered.
+     * @param prefetchCount The maximum number of unacknowledged deliveries or 0 for no limit.
+     * @param queueArgs Arguments for the queue declaration or null if none.
+     * @throws IOException Thrown if an error occurs.
+     */
+	ConsumerHolderBase(Channel channel, IChannelFactory channelFactory, String excName, String topic,
+			boolean directReplyTo, String queueName, boolean autoAck, int prefetchCount, Map<String, Object> queueArgs)
+			throws IOException
+	{
+		// A channel created by the factory is closed with the object
+		this(new RabbitMqTransport(channel, channelFactory != null), true, channelFactory, excName, topic,
+				directReplyTo, queueName, autoAck, prefetchCount, queueArgs, true);
+	}
+	
+	/**
+     * Constructor. Use this to communicate via a transport, such as one of LoopbackBroker.
+     * The object does not recover, and the transport is left open when the object is closed.
+     * @param transport Transport.
+     * @param excName Exchange name.
+     * @param topic The topic to consume. Ignored if the direct reply-to is consumed.
+     * @param directReplyTo Whether to consume the direct reply-to pseudo-queue.
+     * @param queueName The name of the queue to consume or null to use a generated name.
+     * @param autoAck If true, each message is considered acknowledged once delivered.
+     * @param prefetchCount The maximum number of unacknowledged deliveries or 0 for no limit.
+     * @param queueArgs Arguments for the queue declaration or null if none.
+     * @throws IOException Thrown if an error occurs.
+     */
+	ConsumerHolderBase(ITransport transport, String excName, String topic, boolean directReplyTo,
+			String queueName, boolean autoAck, int prefetchCount, Map<String, Object> queueArgs)
+			throws IOException
+	{
+		this(transport, false, null, excName, topic, directReplyTo, queueName, autoAck, prefetchCount, queueArgs, true);
+	}
+	
+	/**
+     * Constructor. Use this to pass the transport together with its ownership.
+     * @param transport Transport.
+     * @param ownsTransport Whether the object closes the transport when closed.
+     * @param channelFactory Creates the channels for recovery or null not to recover.
+     * If not null, the transport must be owned.
+     * @param excName Exchange name.
+     * @param topic The topic to consume. Ignored if the direct reply-to is consumed.
+     * @param directReplyTo Whether to consume the direct reply-to pseudo-queue.
+     * @param queueName The name of the queue to consume or null to use a generated name.
+     * @param autoAck If true, each message is considered acknowledged once delivered.
+     * @param prefetchCount The maximum number of unacknowledged deliveries or 0 for no limit.
+     * @param queueArgs Arguments for the queue declaration or null if none.
+     * @param startConsuming Whether to start consuming in the constructor. If false, a named queue
+     * is declared and bound, so the messages wait in the queue until startConsuming is called.
+     * A queue with a generated name is declared in startConsuming instead, because the broker
+     * auto-deletes it only once it has had a consumer. Then, the topic must be specified.
+     * @throws IOException Thrown if an error occurs.
+     */
+	ConsumerHolderBase(ITransport transport, boolean ownsTransport, IChannelFactory channelFactory,
+			String excName, String topic, boolean directReplyTo, String queueName, boolean autoAck,
+			int prefetchCount, Map<String, Object> queueArgs, boolean startConsuming)
+			throws IOException
+	{
+		m_channelFactory = channelFactory;
+		m_ownsTransport = ownsTransport;
     	m_exchange = excName;
-		
+    	m_directReplyTo = directReplyTo;
+    	m_queueName = queueName;
+    	m_autoAck = autoAck;
+    	m_prefetchCount = prefetchCount;
+    	m_queueArgs = queueArgs;
+    	m_state = new AtomicReference<>(new ConsumerState(transport, null,
+    			startConsuming ? "No consumer created successfully" : "Consuming has not been started", false, false));
+    	
+    	boolean declareLater = !startConsuming && queueName == null && !directReplyTo;
+    	
+    	if (declareLater && topic == null)
+    	{
+    		throw new IllegalArgumentException("The topic must be specified if a generated queue is consumed later");
+    	}
+    	
+    	if (declareLater)
+    	{
+    		m_topicName = topic;
+    		return;
+    	}
+    	
     	try
         {
-	    	// Declaring an exchange.
-	        // Request-response could use a direct exchange, which is simpler than a topic-based exchange.
-	        // However, as topics are utilised in publish-subscribe scenarios anyway, this code uses
-	        // topics here as well to enable re-using an already existing topic exchange.
-	    	boolean exDurable = true;
-	    	boolean exAutoDelete = false;
-	    	m_channel.exchangeDeclare(m_exchange, BuiltinExchangeType.TOPIC, exDurable, exAutoDelete, null);
-	    	
-	    	// Declaring a queue.
-	        // Empty queue name -> use a generated name.
-	        // The queue is durable -> survive restart.
-	        // However, "autodelete" makes sure (?) the queue is deleted if no-one uses it.
-	        // It is assumed that if the broker reboots quickly, this client will not notice it and keeps
-	        // using the same queue. In such a case, the channel object should reconnect by itself.
-	    	boolean qDurable = true;
-	    	boolean qExclusive = false;
-	    	boolean qAutoDelete = true;
-	        String queueName = channel.queueDeclare("", qDurable, qExclusive, qAutoDelete, null).getQueue();
-	        
-	        // If the topic has not been specified, generating one from the queue name.
-	        m_topicName = topic == null ? "topic-" + queueName : topic;
-	        
-	        // Binding the queue to the topic
-	        channel.queueBind(queueName, excName, m_topicName);
-    	
-			// Creating a consumer for the queue.
-	        // autoAck = true -> "no manual acks"
-	        boolean autoAck = true;
-	        m_consumerTag = m_channel.basicConsume(queueName, autoAck, new DefaultConsumer(m_channel)
-	        {
-	        	@Override
-	            public void handleDelivery(String consumerTag, Envelope envelope, BasicProperties properties, byte[] body)
-	            		throws IOException
-	            {
-	        		if (!consumerTagEquals(consumerTag))
-	            	{
-	            		return; // Unexpected consumer tag
-	            	}
-	        		
-	        		handleDeliveryImpl(properties, body);
-	            	super.handleDelivery(consumerTag, envelope, properties, body);
-	            }
-	        	
-	        	@Override
-	        	public void handleCancel(String consumerTag)
-	        			throws IOException
-	        	{
-	        		if (!consumerTagEquals(consumerTag))
-	            	{
-	            		return; // Unexpected consumer tag
-	            	}
-	        		
-	        		markConsumerInactive("Consumer has been cancelled");
-	        		super.handleCancel(consumerTag);
-	        	}
-	        	
-	        	@Override
-	        	public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig)
-	        	{
-	        		if (!consumerTagEquals(consumerTag))
-	            	{
-	            		return; // Unexpected consumer tag
-	            	}
-	        		
-	        		markConsumerInactive("Shutdown has occurred");
-	        		super.handleShutdownSignal(consumerTag, sig);
-	        	}
-	        });
+    		String declaredQueue = declareQueue(transport);
+    		
+    		if (directReplyTo)
+    		{
+    			m_topicName = ITransport.DIRECT_REPLY_TO_QUEUE;
+    		}
+    		else
+    		{
+    			// If the topic has not been specified, generating one from the queue name.
+    			// The topic is kept if the object recovers, although the generated queue name changes.
+    	        m_topicName = topic == null ? "topic-" + declaredQueue : topic;
+    		}
+    		
+    		bind(transport, declaredQueue);
+    		
+    		if (startConsuming)
+    		{
+    			m_consumeStarted = true;
+    			consume(transport, declaredQueue);
+    		}
+    		else
+    		{
+    			m_declaredQueue = declaredQueue;
+    		}
         }
         catch (Exception e)
         {
@@ -154,32 +285,45 @@ public abstract class ConsumerHolderBase
      */
     public void close()
     {
-    	// Cancelling the consumer
-    	if (consumerIsActive())
+    	String reason = "User has closed the object";
+    	ConsumerState previous = null;
+    	
+    	// From now on, recovery will not replace the transport
+    	do
     	{
-    		String consumerTagTemp = null;
+    		previous = m_state.get();
     		
-    		// At this point, the consumer may have become inactive, although the
-    		// following code assumes otherwise. However, if the stored consumer
-    		// tag has become null, the following exception handling block
-    		// supposedly takes care of the situation.
-    		
-    		synchronized (m_lockObject)
+    		if (previous.m_closed)
     		{
-				consumerTagTemp = m_consumerTag;
-			}
-    		
+    			return;
+    		}
+    	}
+    	while (!m_state.compareAndSet(previous, previous.closed(reason)));
+    	
+    	// Cancelling the consumer
+    	if (previous.m_consumerTag != null)
+    	{
     		try
     		{
-    			m_channel.basicCancel(consumerTagTemp);
+    			previous.m_transport.cancel(previous.m_consumerTag);
     		}
     		catch (Exception e)
     		{
 				// No can do! :/
     			// Not leaking any exceptions from this method
 			}
-    		
-    		markConsumerInactive("User has closed the object");
+    	}
+    	
+    	if (previous.m_consumerTag != null || previous.m_recovering)
+    	{
+    		handleConsumerInactive(reason);
+    	}
+    	
+    	// Any queued responses and acks are still sent. A channel created
+    	// by this object is closed after those.
+    	if (m_ownsTransport)
+    	{
+    		previous.m_transport.close();
     	}
     }
 	
@@ -192,66 +336,445 @@ public abstract class ConsumerHolderBase
     	return m_topicName;
     }
     
+    /**
+     * Starts consuming if the constructor did not start it. The messages that have
+     * waited in the queue are delivered from now on. A queue with a generated name
+     * is declared and bound only now. Calling this again has no effect.
+     * @throws IOException Thrown if an error occurs or the object has been closed.
+     */
+    protected void startConsuming() throws IOException
+    {
+    	synchronized (m_startLock)
+    	{
+    		if (m_consumeStarted)
+    		{
+    			return;
+    		}
+    		
+    		ConsumerState state = m_state.get();
+    		
+    		if (state.m_closed)
+    		{
+    			throw new IOException("The object is unusable. Reason: " + state.m_inactiveReason);
+    		}
+    		
+    		// Marking as started first, because the transport may deliver before consume
+    		// returns, and a receiver may call this method again. No recovery can occur
+    		// before this, because there is no consumer to notice a shutdown.
+    		m_consumeStarted = true;
+    		
+    		try
+    		{
+    			// A generated queue is declared only now. If consuming fails, the same
+    			// queue is consumed on the next attempt.
+    			if (m_declaredQueue == null)
+    			{
+    				String declaredQueue = declareQueue(state.m_transport);
+    				bind(state.m_transport, declaredQueue);
+    				m_declaredQueue = declaredQueue;
+    			}
+    			
+    			consume(state.m_transport, m_declaredQueue);
+    		}
+    		catch (IOException | RuntimeException e)
+    		{
+    			m_consumeStarted = false;
+    			throw e;
+    		}
+    		
+    		m_declaredQueue = null;
+    	}
+    }
+    
+    /**
+     * Checks that the consumer is active or consuming has not been started yet.
+     * Throws an exception if not.
+     * @throws IOException Thrown if the object is unusable.
+     */
+    protected void expectUsable() throws IOException
+    {
+    	if (!m_consumeStarted && !isClosed())
+    	{
+    		return;
+    	}
+    	
+    	expectConsumerIsActive();
+    }
+    
     /**
      * Checks if the consumer held is active. Throws an exception if not.
      * @throws IOException Thrown if the consumer is inactive.
      */
 	protected void expectConsumerIsActive() throws IOException
     {
-		String reason = "";
+		// No locking needed; the state is immutable
+		ConsumerState state = m_state.get();
 		
-		synchronized (m_lockObject)
-    	{
-			// This block nests "synchronized (m_lockObject)", but this does not cause a deadlock:
-			// "--  a thread can acquire a lock that it already owns"; please see
-			// https://docs.oracle.com/javase/tutorial/essential/concurrency/locksync.html
-			if (consumerIsActive())
-			{
-				return;
-			}
-			
-			// Consumer not active -> throw an exception
-			reason = m_consumerInactiveReason;
-    	}
+		if (state.m_consumerTag != null)
+		{
+			return;
+		}
 		
-		throw new IOException("The object is unusable. Reason: " + reason);
+		// Consumer not active -> throw an exception
+		throw new IOException("The object is unusable. Reason: " + state.m_inactiveReason);
     }
 	
+	/**
+	 * Acknowledges a delivery. Use this only if the object was created with manual acks.
+	 * The acknowledgement is sent asynchronously after any previously queued publications.
+	 * @param deliveryTag Delivery tag.
+	 * @throws IOException Thrown if an error occurs.
+	 */
+	protected void ack(long deliveryTag) throws IOException
+	{
+		getTransport().ack(deliveryTag);
+	}
+	
+	/**
+	 * Rejects a delivery. Use this only if the object was created with manual acks.
+	 * @param deliveryTag Delivery tag.
+	 * @param requeue Whether the broker shall requeue the message.
+	 * @throws IOException Thrown if an error occurs.
+	 */
+	protected void nack(long deliveryTag, boolean requeue) throws IOException
+	{
+		getTransport().nack(deliveryTag, requeue);
+	}
+	
+	/**
+	 * Returns the transport. After a recovery, this is another transport than before.
+	 * @return Transport.
+	 */
+	ITransport getTransport()
+	{
+		return m_state.get().m_transport;
+	}
+	
 	/**
 	 * Implements the handling of a delivery received by the consumer.
+	 * @param deliveryTag Delivery tag.
 	 * @param properties Properties.
 	 * @param body Message body.
 	 */
-	protected abstract void handleDeliveryImpl(BasicProperties properties, byte[] body);
+	protected abstract void handleDeliveryImpl(long deliveryTag, BasicProperties properties, byte[] body);
+	
+	/**
+	 * Called when the consumer has become inactive. The default implementation does nothing.
+	 * @param reason The reason why the consumer is inactive.
+	 */
+	protected void handleConsumerInactive(String reason)
+	{
+		// Empty default implementation
+	}
+	
+	/**
+	 * Called when the channel has shut down and the object starts to recover. This is only called
+	 * if the object was created with a channel factory. The default implementation does nothing.
+	 * @param reason The reason of the shutdown.
+	 */
+	protected void handleRecoveryStarted(String reason)
+	{
+		// Empty default implementation
+	}
+	
+	/**
+	 * Called when the object has recovered and consumes again on a new channel.
+	 * The default implementation does nothing.
+	 */
+	protected void handleRecoveryCompleted()
+	{
+		// Empty default implementation
+	}
 	
 	
 	// ### Private methods ###
 	
-	private boolean consumerIsActive()
-    {
-    	// Whether the consumer is active
-		synchronized (m_lockObject)
-    	{
-			return m_consumerTag != null && !m_consumerTag.equals("");
+	private String declareQueue(ITransport transport) throws IOException
+	{
+		if (m_directReplyTo)
+		{
+			// No declarations are needed; the broker provides the pseudo-queue
+			return ITransport.DIRECT_REPLY_TO_QUEUE;
 		}
-    }
-    
-    private void markConsumerInactive(String reason)
-    {
-    	// Mark that the consumer is inactive
-    	synchronized (m_lockObject)
+    	
+    	// Declaring an exchange.
+        // Request-response could use a direct exchange, which is simpler than a topic-based exchange.
+        // However, as topics are utilised in publish-subscribe scenarios anyway, this code uses
+        // topics here as well to enable re-using an already existing topic exchange.
+    	transport.declareTopicExchange(m_exchange);
+    	
+    	// Declaring a queue.
+        // Null queue name -> use a generated name.
+        // The queue is durable -> survive restart.
+        // However, "autodelete" makes sure (?) the queue is deleted if no-one uses it.
+        // It is assumed that if the broker reboots quickly, this client will not notice it and keeps
+        // using the same queue. In such a case, the channel object should reconnect by itself.
+        return transport.declareQueue(m_queueName, m_queueArgs);
+	}
+	
+	private void bind(ITransport transport, String declaredQueue) throws IOException
+	{
+		// The pseudo-queue needs no binding
+		if (!m_directReplyTo)
+		{
+			// Binding the queue to the topic
+	        transport.bindQueue(declaredQueue, m_exchange, m_topicName);
+		}
+	}
+	
+	private void consume(ITransport transport, String declaredQueue) throws IOException
+	{
+		// Replies arrive to the channel that consumes the pseudo-queue, and the
+		// broker requires auto-acking in this case
+		boolean autoAck = m_directReplyTo || m_autoAck;
+		
+		// Creating a consumer for the queue
+		String tag = transport.consume(declaredQueue, autoAck, m_prefetchCount, createConsumer());
+		
+		// The consumer may have been activated already in handleConsumeOk
+		if (activateConsumer(tag))
+		{
+			return;
+		}
+		
+		// Closed meanwhile
+		try
+		{
+			transport.cancel(tag);
+		}
+		catch (Exception e)
+		{} // No can do
+	}
+	
+	private boolean activateConsumer(String tag)
+	{
+		while (true)
 		{
-			m_consumerTag = null;
-			m_consumerInactiveReason = reason;
+			ConsumerState state = m_state.get();
+			
+			if (state.m_closed)
+			{
+				return false;
+			}
+			
+			if (state.consumerTagEquals(tag) || m_state.compareAndSet(state, state.active(tag)))
+			{
+				return true;
+			}
 		}
+	}
+	
+	private void startRecovery(ConsumerState expected, String reason)
+	{
+		// Unless closed or cancelled meanwhile
+		if (!m_state.compareAndSet(expected, expected.recovering("Recovering from a channel shutdown: " + reason)))
+		{
+			return;
+		}
+		
+		handleRecoveryStarted(reason);
+		
+		Thread thread = new Thread(this::recover, "ConsumerRecovery-" + RECOVERY_THREAD_COUNTER.incrementAndGet());
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	private void recover()
+	{
+		long delay = RECOVERY_DELAY_INITIAL_MS;
+		
+		while (!isClosed())
+		{
+			ITransport transport = null;
+			
+			try
+			{
+				// The new channel is closed with the transport
+				transport = new RabbitMqTransport(m_channelFactory.createChannel(), true);
+				String declaredQueue = declareQueue(transport);
+				
+				// Replacing the transport before consuming so that
+				// the acks of the new deliveries go to the new channel
+				ConsumerState old = null;
+				
+				do
+				{
+					old = m_state.get();
+					
+					if (old.m_closed)
+					{
+						transport.close();
+						return;
+					}
+				}
+				while (!m_state.compareAndSet(old, old.withTransport(transport)));
+				
+				// The old channel has shut down; this only makes sure
+				old.m_transport.close();
+				
+				bind(transport, declaredQueue);
+				consume(transport, declaredQueue);
+				
+				if (!isClosed())
+				{
+					handleRecoveryCompleted();
+				}
+				
+				return;
+			}
+			catch (Exception e)
+			{
+				// Trying again after a delay unless the new transport is in use already
+				if (transport != null && transport != m_state.get().m_transport)
+				{
+					transport.close();
+				}
+			}
+			
+			try
+			{
+				Thread.sleep(delay);
+			}
+			catch (InterruptedException e)
+			{
+				return; // Nobody interrupts this thread, though
+			}
+			
+			delay = Math.min(delay * 2, RECOVERY_DELAY_MAX_MS);
+		}
+	}
+	
+	private boolean isClosed()
+	{
+		return m_state.get().m_closed;
+	}
+	
+	private ITransport.IConsumer createConsumer()
+	{
+		return new ITransport.IConsumer()
+		{
+			@Override
+			public void handleConsumeOk(String consumerTag)
+			{
+				// Activating before the first delivery, because the transport
+				// may deliver even before consume has returned
+				activateConsumer(consumerTag);
+			}
+			
+			@Override
+			public void handleDelivery(String consumerTag, long deliveryTag, BasicProperties properties, byte[] body)
+			{
+				// Called for each delivery, so no locking
+				if (!m_state.get().consumerTagEquals(consumerTag))
+				{
+					return; // Unexpected consumer tag
+				}
+				
+				handleDeliveryImpl(deliveryTag, properties, body);
+			}
+			
+			@Override
+			public void handleCancel(String consumerTag)
+			{
+				ConsumerState state = m_state.get();
+				
+				if (!state.consumerTagEquals(consumerTag))
+				{
+					return; // Unexpected consumer tag
+				}
+				
+				markConsumerInactive(state, "Consumer has been cancelled");
+			}
+			
+			@Override
+			public void handleShutdown(String consumerTag, String reason, boolean initiatedByApplication)
+			{
+				ConsumerState state = m_state.get();
+				
+				if (!state.consumerTagEquals(consumerTag))
+				{
+					return; // Unexpected consumer tag
+				}
+				
+				// Recovering unless the application has caused the shutdown
+				if (m_channelFactory != null && !initiatedByApplication)
+				{
+					startRecovery(state, reason);
+				}
+				else
+				{
+					markConsumerInactive(state, "Shutdown has occurred");
+				}
+			}
+		};
+	}
+	
+    private void markConsumerInactive(ConsumerState expected, String reason)
+    {
+    	// Unless closed or cancelled meanwhile
+    	if (m_state.compareAndSet(expected, expected.inactive(reason)))
+    	{
+    		handleConsumerInactive(reason);
+    	}
     }
     
-    private boolean consumerTagEquals(String tag)
+    
+    /**
+     * The state of the consumer. Immutable, so the state is read without locking,
+     * and a change is a single atomic replacement.
+     */
+    private static final class ConsumerState
     {
-    	// Check equality of the consumer tag
-    	synchronized (m_lockObject)
+    	private final ITransport m_transport;
+    	
+    	// The consumer tag if the consumer is active; otherwise, null
+    	private final String m_consumerTag;
+    	
+    	// The reason why the object cannot be used; null if the consumer is active
+    	private final String m_inactiveReason;
+    	
+    	private final boolean m_recovering;
+    	private final boolean m_closed;
+    	
+    	
+    	private ConsumerState(ITransport transport, String consumerTag, String inactiveReason,
+    			boolean recovering, boolean closed)
     	{
-			return m_consumerTag != null && m_consumerTag.equals(tag);
-		}
+    		m_transport = transport;
+    		m_consumerTag = consumerTag;
+    		m_inactiveReason = inactiveReason;
+    		m_recovering = recovering;
+    		m_closed = closed;
+    	}
+    	
+    	private ConsumerState active(String consumerTag)
+    	{
+    		return new ConsumerState(m_transport, consumerTag, null, false, false);
+    	}
+    	
+    	private ConsumerState inactive(String reason)
+    	{
+    		return new ConsumerState(m_transport, null, reason, false, m_closed);
+    	}
+    	
+    	private ConsumerState recovering(String reason)
+    	{
+    		return new ConsumerState(m_transport, null, reason, true, false);
+    	}
+    	
+    	private ConsumerState closed(String reason)
+    	{
+    		return new ConsumerState(m_transport, null, reason, false, true);
+    	}
+    	
+    	private ConsumerState withTransport(ITransport transport)
+    	{
+    		return new ConsumerState(transport, m_consumerTag, m_inactiveReason, m_recovering, m_closed);
+    	}
+    	
+    	private boolean consumerTagEquals(String tag)
+    	{
+    		return m_consumerTag != null && m_consumerTag.equals(tag);
+    	}
     }
 }
@@ -0,0 +1,296 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The default implementation of IMetrics. The metrics are kept per topic: client metrics
+ * per target topic and server metrics per server topic. For each topic, there are counters,
+ * an in-flight gauge and latency histograms (see LatencyHistogram).
+ * 
+ * Recording takes no locks and, once a topic has been seen, allocates nothing. The counters
+ * are LongAdders, which scale when many threads record at the same time.
+ * 
+ * Call registerMBeans to expose the metrics via JMX. Then, each topic has an MBean of its
+ * own, including the topics seen later.
+ * @author Petri Kannisto
+ */
+public class DefaultMetrics implements IMetrics, IDefaultMetricsMXBean
+{
+	private static final String JMX_DOMAIN = "eu.cocop.amqprequestresponsehelper";
+	
+	private final ConcurrentHashMap<String, ClientTopicMetrics> m_clientTopics = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, ServerTopicMetrics> m_serverTopics = new ConcurrentHashMap<>();
+	
+	private final LongAdder m_unexpectedCorrelationIds = new LongAdder();
+	
+	// The name that the MBeans have been registered with; null if not registered
+	private volatile String m_jmxName = null;
+	
+	
+	/**
+	 * Constructor.
+	 */
+	public DefaultMetrics()
+	{
+		// Empty ctor body
+	}
+	
+	/**
+	 * Returns the metrics of a client target topic.
+	 * @param topic Target topic.
+	 * @return Metrics or null if no request has been sent to the topic.
+	 */
+	public ClientTopicMetrics getClientTopic(String topic)
+	{
+		return m_clientTopics.get(topic);
+	}
+	
+	/**
+	 * Returns the metrics of all client target topics.
+	 * @return Metrics.
+	 */
+	public Collection<ClientTopicMetrics> getClientTopicMetrics()
+	{
+		return m_clientTopics.values();
+	}
+	
+	/**
+	 * Returns the metrics of a server topic.
+	 * @param topic Server topic.
+	 * @return Metrics or null if no request has been received in the topic.
+	 */
+	public ServerTopicMetrics getServerTopic(String topic)
+	{
+		return m_serverTopics.get(topic);
+	}
+	
+	/**
+	 * Returns the metrics of all server topics.
+	 * @return Metrics.
+	 */
+	public Collection<ServerTopicMetrics> getServerTopicMetrics()
+	{
+		return m_serverTopics.values();
+	}
+	
+	/**
+	 * Registers the MBeans of the metrics in the platform MBean server. The MBeans are
+	 * in the domain "eu.cocop.amqprequestresponsehelper", and the key property "name"
+	 * distinguishes the metrics objects from each other.
+	 * @param name Name of this metrics object, such as the application name.
+	 * @throws JMException Thrown if registration fails, such as when the name is in use already.
+	 */
+	public void registerMBeans(String name)
+			throws JMException
+	{
+		if (m_jmxName != null)
+		{
+			throw new IllegalStateException("The MBeans have been registered already");
+		}
+		
+		MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		mbeanServer.registerMBean(this, createObjectName(name, "Metrics", null));
+		
+		// Any topic seen from now on registers itself. Registering those seen before.
+		m_jmxName = name;
+		
+		for (ClientTopicMetrics metrics : m_clientTopics.values())
+		{
+			registerTopic(name, "ClientTopic", metrics.getTopic(), metrics);
+		}
+		
+		for (ServerTopicMetrics metrics : m_serverTopics.values())
+		{
+			registerTopic(name, "ServerTopic", metrics.getTopic(), metrics);
+		}
+	}
+	
+	/**
+	 * Unregisters the MBeans registered by registerMBeans. Call this when the metrics are no
+	 * longer needed, because otherwise the MBean server holds the object indefinitely.
+	 */
+	public void unregisterMBeans()
+	{
+		String name = m_jmxName;
+		m_jmxName = null;
+		
+		if (name == null)
+		{
+			return;
+		}
+		
+		try
+		{
+			MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+			
+			for (ObjectName objectName : mbeanServer.queryNames(createObjectName(name, "*", null), null))
+			{
+				mbeanServer.unregisterMBean(objectName);
+			}
+		}
+		catch (JMException e)
+		{
+			// No can do
+		}
+	}
+	
+	@Override
+	public void requestSent(String targetTopic)
+	{
+		getOrCreateClientTopic(targetTopic).recordSent();
+	}
+	
+	@Override
+	public void requestCompleted(String targetTopic, ClientOutcome outcome, long latencyNanos)
+	{
+		getOrCreateClientTopic(targetTopic).recordCompleted(outcome, latencyNanos);
+	}
+	
+	@Override
+	public void unexpectedCorrelationId()
+	{
+		m_unexpectedCorrelationIds.increment();
+	}
+	
+	@Override
+	public void requestReceived(String topic)
+	{
+		getOrCreateServerTopic(topic).recordReceived();
+	}
+	
+	@Override
+	public void requestServed(String topic, ServerOutcome outcome, long waitNanos, long handlerNanos)
+	{
+		getOrCreateServerTopic(topic).recordServed(outcome, waitNanos, handlerNanos);
+	}
+	
+	@Override
+	public long getUnexpectedCorrelationIds()
+	{
+		return m_unexpectedCorrelationIds.sum();
+	}
+	
+	@Override
+	public String[] getClientTopics()
+	{
+		return m_clientTopics.keySet().toArray(new String[0]);
+	}
+	
+	@Override
+	public String[] getServerTopics()
+	{
+		return m_serverTopics.keySet().toArray(new String[0]);
+	}
+	
+	private ClientTopicMetrics getOrCreateClientTopic(String topic)
+	{
+		// Unlike computeIfAbsent, get never locks
+		ClientTopicMetrics metrics = m_clientTopics.get(topic);
+		
+		if (metrics != null)
+		{
+			return metrics;
+		}
+		
+		ClientTopicMetrics created = new ClientTopicMetrics(topic);
+		metrics = m_clientTopics.putIfAbsent(topic, created);
+		
+		if (metrics != null)
+		{
+			return metrics; // Another thread was faster
+		}
+		
+		topicCreated("ClientTopic", topic, created);
+		return created;
+	}
+	
+	private ServerTopicMetrics getOrCreateServerTopic(String topic)
+	{
+		ServerTopicMetrics metrics = m_serverTopics.get(topic);
+		
+		if (metrics != null)
+		{
+			return metrics;
+		}
+		
+		ServerTopicMetrics created = new ServerTopicMetrics(topic);
+		metrics = m_serverTopics.putIfAbsent(topic, created);
+		
+		if (metrics != null)
+		{
+			return metrics;
+		}
+		
+		topicCreated("ServerTopic", topic, created);
+		return created;
+	}
+	
+	private void topicCreated(String type, String topic, Object mbean)
+	{
+		String name = m_jmxName;
+		
+		if (name == null)
+		{
+			return;
+		}
+		
+		// Registration must not fail a request
+		try
+		{
+			registerTopic(name, type, topic, mbean);
+		}
+		catch (JMException e)
+		{
+			// No can do
+		}
+	}
+	
+	private static void registerTopic(String name, String type, String topic, Object mbean)
+			throws JMException
+	{
+		ObjectName objectName = createObjectName(name, type, topic);
+		MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		
+		// Registering and the creation of a topic may run concurrently
+		if (!mbeanServer.isRegistered(objectName))
+		{
+			mbeanServer.registerMBean(mbean, objectName);
+		}
+	}
+	
+	private static ObjectName createObjectName(String name, String type, String topic)
+			throws JMException
+	{
+		// With type "*", this matches every MBean of the name
+		String retval = JMX_DOMAIN + ":name=" + ObjectName.quote(name) + ",type=" + type;
+		
+		if (topic != null)
+		{
+			retval += ",topic=" + ObjectName.quote(topic);
+		}
+		else if (type.equals("*"))
+		{
+			retval += ",*";
+		}
+		
+		return new ObjectName(retval);
+	}
+}
@@ -0,0 +1,375 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A timer for a large number of timeouts that are mostly cancelled before they expire,
+ * such as request timeouts. The timeouts are placed in a wheel of buckets, and a single
+ * worker thread processes one bucket per tick. Adding and cancelling a timeout are
+ * constant-time operations that do not block. The accuracy is one tick.
+ * 
+ * Cancelled timeouts are removed from the wheel on the next tick, which makes their
+ * memory available for garbage collection without waiting for the original deadline.
+ * 
+ * The tasks are executed in the worker thread. Therefore, they must execute quickly.
+ * @author Petri Kannisto
+ */
+final class HashedWheelTimer
+{
+	// The maximum number of new timeouts to place in the wheel per tick.
+	// This keeps a burst of new timeouts from delaying the expiration.
+	private static final int MAX_NEW_TIMEOUTS_PER_TICK = 100000;
+	
+	private final String m_threadName;
+	private final long m_tickNanos;
+	private final Bucket[] m_wheel;
+	private final int m_mask;
+	
+	// Timeouts are added and cancelled via these queues, and only the worker
+	// thread modifies the wheel. Therefore, the wheel needs no locking.
+	private final ConcurrentLinkedQueue<Timeout> m_newTimeouts = new ConcurrentLinkedQueue<>();
+	private final ConcurrentLinkedQueue<Timeout> m_cancelledTimeouts = new ConcurrentLinkedQueue<>();
+	
+	private final AtomicBoolean m_started = new AtomicBoolean(false);
+	
+	// The time when the worker was started. Deadlines are relative to this.
+	private volatile long m_startTime = 0;
+	
+	// The start time is not known before the worker starts
+	private final Object m_startLock = new Object();
+	
+	
+	/**
+	 * Constructor. The worker thread is started when the first timeout is added.
+	 * @param threadName The name of the worker thread.
+	 * @param tickDuration The duration of a tick.
+	 * @param unit Time unit of tick duration.
+	 * @param wheelSize The number of buckets in the wheel. Rounded up to a power of two.
+	 */
+	HashedWheelTimer(String threadName, long tickDuration, TimeUnit unit, int wheelSize)
+	{
+		if (tickDuration <= 0 || wheelSize <= 0)
+		{
+			throw new IllegalArgumentException("Tick duration and wheel size must be positive");
+		}
+		
+		int size = Integer.highestOneBit(wheelSize);
+		
+		if (size < wheelSize)
+		{
+			size <<= 1;
+		}
+		
+		m_threadName = threadName;
+		m_tickNanos = unit.toNanos(tickDuration);
+		m_wheel = new Bucket[size];
+		m_mask = size - 1;
+		
+		for (int i = 0; i < size; ++i)
+		{
+			m_wheel[i] = new Bucket();
+		}
+	}
+	
+	/**
+	 * Schedules a task to execute after a delay.
+	 * @param task Task.
+	 * @param delay Delay.
+	 * @param unit Time unit of delay.
+	 * @return Handle to cancel the timeout.
+	 */
+	Timeout newTimeout(Runnable task, long delay, TimeUnit unit)
+	{
+		startIfNeeded();
+		
+		// Saturating so that a very long delay, such as Long.MAX_VALUE,
+		// never expires instead of overflowing to a past deadline
+		long elapsed = System.nanoTime() - m_startTime;
+		long delayNanos = unit.toNanos(Math.max(0, delay));
+		long deadline = delayNanos > Long.MAX_VALUE - elapsed ? Long.MAX_VALUE : elapsed + delayNanos;
+		Timeout timeout = new Timeout(this, task, deadline);
+		m_newTimeouts.add(timeout);
+		return timeout;
+	}
+	
+	private void startIfNeeded()
+	{
+		if (m_started.get())
+		{
+			return;
+		}
+		
+		synchronized (m_startLock)
+		{
+			if (m_started.get())
+			{
+				return;
+			}
+			
+			m_startTime = System.nanoTime();
+			
+			// Daemon thread -> does not prevent the application from exiting
+			Thread worker = new Thread(this::runWorker, m_threadName);
+			worker.setDaemon(true);
+			worker.start();
+			
+			m_started.set(true);
+		}
+	}
+	
+	private void runWorker()
+	{
+		long tick = 0;
+		
+		while (true)
+		{
+			waitForNextTick(tick);
+			
+			removeCancelledTimeouts();
+			transferNewTimeouts(tick);
+			m_wheel[(int)(tick & m_mask)].expireTimeouts();
+			
+			++tick;
+		}
+	}
+	
+	private void waitForNextTick(long tick)
+	{
+		long deadline = m_tickNanos * (tick + 1);
+		
+		while (true)
+		{
+			long sleepNanos = deadline - (System.nanoTime() - m_startTime);
+			
+			if (sleepNanos <= 0)
+			{
+				return;
+			}
+			
+			try
+			{
+				// Rounding up to make sure the tick has passed after the sleep
+				Thread.sleep((sleepNanos + 999999) / 1000000);
+			}
+			catch (InterruptedException e)
+			{
+				// The worker never quits; just checking the time again
+			}
+		}
+	}
+	
+	private void transferNewTimeouts(long currentTick)
+	{
+		for (int i = 0; i < MAX_NEW_TIMEOUTS_PER_TICK; ++i)
+		{
+			Timeout timeout = m_newTimeouts.poll();
+			
+			if (timeout == null)
+			{
+				return; // All transferred
+			}
+			
+			if (timeout.m_state != Timeout.STATE_INIT)
+			{
+				continue; // Cancelled already
+			}
+			
+			long calculatedTick = timeout.m_deadline / m_tickNanos;
+			timeout.m_remainingRounds = (calculatedTick - currentTick) / m_wheel.length;
+			
+			// If the deadline has already passed, the timeout goes to the current bucket
+			long tick = Math.max(calculatedTick, currentTick);
+			m_wheel[(int)(tick & m_mask)].add(timeout);
+		}
+	}
+	
+	private void removeCancelledTimeouts()
+	{
+		while (true)
+		{
+			Timeout timeout = m_cancelledTimeouts.poll();
+			
+			if (timeout == null)
+			{
+				return;
+			}
+			
+			// The timeout is not in the wheel if it was cancelled before transfer
+			if (timeout.m_bucket != null)
+			{
+				timeout.m_bucket.remove(timeout);
+			}
+		}
+	}
+	
+	/**
+	 * A handle of a scheduled task.
+	 */
+	static final class Timeout
+	{
+		private static final int STATE_INIT = 0;
+		private static final int STATE_CANCELLED = 1;
+		private static final int STATE_EXPIRED = 2;
+		
+		private static final AtomicIntegerFieldUpdater<Timeout> STATE_UPDATER =
+				AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "m_state");
+		
+		private final HashedWheelTimer m_timer;
+		private final long m_deadline;
+		private Runnable m_task;
+		private volatile int m_state = STATE_INIT;
+		
+		// These are accessed by the worker thread only
+		private long m_remainingRounds = 0;
+		private Bucket m_bucket = null;
+		private Timeout m_next = null;
+		private Timeout m_prev = null;
+		
+		
+		private Timeout(HashedWheelTimer timer, Runnable task, long deadline)
+		{
+			m_timer = timer;
+			m_task = task;
+			m_deadline = deadline;
+		}
+		
+		/**
+		 * Cancels the timeout. The task will not execute unless it has already started.
+		 * @return True if cancelled, false if the task has already expired or been cancelled.
+		 */
+		boolean cancel()
+		{
+			if (!STATE_UPDATER.compareAndSet(this, STATE_INIT, STATE_CANCELLED))
+			{
+				return false;
+			}
+			
+			// Releasing the task right away so that the garbage collector can take it.
+			// The worker will remove the timeout from the wheel.
+			m_task = null;
+			m_timer.m_cancelledTimeouts.add(this);
+			return true;
+		}
+		
+		private void expire()
+		{
+			if (!STATE_UPDATER.compareAndSet(this, STATE_INIT, STATE_EXPIRED))
+			{
+				return;
+			}
+			
+			Runnable task = m_task;
+			m_task = null;
+			
+			try
+			{
+				task.run();
+			}
+			catch (Exception e)
+			{} // No can do
+		}
+	}
+	
+	/**
+	 * A doubly-linked list of timeouts. Accessed by the worker thread only.
+	 */
+	private static final class Bucket
+	{
+		private Timeout m_head = null;
+		private Timeout m_tail = null;
+		
+		
+		void add(Timeout timeout)
+		{
+			timeout.m_bucket = this;
+			
+			if (m_head == null)
+			{
+				m_head = timeout;
+				m_tail = timeout;
+			}
+			else
+			{
+				m_tail.m_next = timeout;
+				timeout.m_prev = m_tail;
+				m_tail = timeout;
+			}
+		}
+		
+		void expireTimeouts()
+		{
+			Timeout timeout = m_head;
+			
+			while (timeout != null)
+			{
+				Timeout next = timeout.m_next;
+				
+				if (timeout.m_remainingRounds <= 0)
+				{
+					// The deadline is within this tick
+					remove(timeout);
+					timeout.expire();
+				}
+				else if (timeout.m_state == Timeout.STATE_CANCELLED)
+				{
+					remove(timeout);
+				}
+				else
+				{
+					--timeout.m_remainingRounds;
+				}
+				
+				timeout = next;
+			}
+		}
+		
+		void remove(Timeout timeout)
+		{
+			if (timeout.m_bucket != this)
+			{
+				return; // Removed already
+			}
+			
+			Timeout next = timeout.m_next;
+			
+			if (timeout.m_prev != null)
+			{
+				timeout.m_prev.m_next = next;
+			}
+			
+			if (next != null)
+			{
+				next.m_prev = timeout.m_prev;
+			}
+			
+			if (timeout == m_head)
+			{
+				m_head = next;
+			}
+			
+			if (timeout == m_tail)
+			{
+				m_tail = timeout.m_prev;
+			}
+			
+			// Releasing references so that the garbage collector can take the object
+			timeout.m_prev = null;
+			timeout.m_next = null;
+			timeout.m_bucket = null;
+		}
+	}
+}
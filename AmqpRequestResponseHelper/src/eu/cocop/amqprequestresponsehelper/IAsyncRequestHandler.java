@@ -0,0 +1,36 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Interface to handle requests asynchronously. Unlike IRequestReceivedEventListener,
+ * the handler returns without waiting for the response to be ready, and the server
+ * responds once the returned future completes. This way, no thread is blocked while
+ * the handler waits for a database or another service.
+ * @author Petri Kannisto
+ */
+public interface IAsyncRequestHandler
+{
+	/**
+	 * Starts to handle a request.
+	 * 
+	 * Once the future completes with a response, the server sends the response and, if
+	 * manual acks are enabled, acknowledges the request. If the future completes
+	 * exceptionally or with null, the request is considered handled without a response,
+	 * and the client will time out.
+	 * @param ev Event data.
+	 * @return Future to receive the response.
+	 */
+	CompletableFuture<byte[]> handleRequest(RequestReceivedEvent ev);
+}
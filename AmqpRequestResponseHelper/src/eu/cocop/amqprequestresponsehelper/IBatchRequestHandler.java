@@ -0,0 +1,33 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.util.List;
+
+/**
+ * Interface to handle requests in batches. This suits handlers whose cost per call
+ * barely depends on the number of requests, such as a database lookup of many keys.
+ * See ServerOptions.setBatchRequestHandler.
+ * @author Petri Kannisto
+ */
+public interface IBatchRequestHandler
+{
+	/**
+	 * Handles a batch of requests. Once this method returns, the server sends the responses
+	 * and, if manual acks are enabled, acknowledges the requests.
+	 * @param events The requests in the order of arrival.
+	 * @return The responses in the same order as the requests. If a response is null or
+	 * missing, or if this method throws, the related request is considered handled without
+	 * a response, and the client will time out.
+	 */
+	List<byte[]> handleRequests(List<RequestReceivedEvent> events);
+}
@@ -0,0 +1,34 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.io.IOException;
+
+import com.rabbitmq.client.Channel;
+
+/**
+ * Creates channels for the objects that recover from channel shutdowns. For instance,
+ * Connection::createChannel will do if the connection stays open. If the connection
+ * itself can be lost, the factory must create a new connection when the previous one
+ * has closed. In that case, disable the automatic recovery of the AMQP client library
+ * (ConnectionFactory.setAutomaticRecoveryEnabled(false)) so that only one of them recovers.
+ * @author Petri Kannisto
+ */
+public interface IChannelFactory
+{
+	/**
+	 * Creates a channel.
+	 * @return Channel.
+	 * @throws IOException Thrown if an error occurs. The caller will try again later.
+	 */
+	Channel createChannel() throws IOException;
+}
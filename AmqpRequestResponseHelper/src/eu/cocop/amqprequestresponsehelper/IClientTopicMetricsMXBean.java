@@ -0,0 +1,98 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+/**
+ * The JMX interface of the metrics of a client target topic (see DefaultMetrics).
+ * The latencies are in microseconds.
+ * @author Petri Kannisto
+ */
+public interface IClientTopicMetricsMXBean
+{
+	/**
+	 * The topic that the requests are sent to.
+	 * @return Topic.
+	 */
+	String getTopic();
+	
+	/**
+	 * The number of requests sent.
+	 * @return Count.
+	 */
+	long getRequestsSent();
+	
+	/**
+	 * The number of requests that have been sent but not completed.
+	 * @return Count.
+	 */
+	long getInFlight();
+	
+	/**
+	 * The number of requests whose response arrived.
+	 * @return Count.
+	 */
+	long getSucceeded();
+	
+	/**
+	 * The number of requests that timed out.
+	 * @return Count.
+	 */
+	long getTimeouts();
+	
+	/**
+	 * The number of requests that the server rejected because it was overloaded.
+	 * @return Count.
+	 */
+	long getOverloaded();
+	
+	/**
+	 * The number of requests that failed otherwise.
+	 * @return Count.
+	 */
+	long getFailures();
+	
+	/**
+	 * The number of requests that were cancelled.
+	 * @return Count.
+	 */
+	long getCancelled();
+	
+	/**
+	 * The mean latency of the successful requests.
+	 * @return Microseconds.
+	 */
+	double getLatencyMeanMicros();
+	
+	/**
+	 * The median latency of the successful requests.
+	 * @return Microseconds.
+	 */
+	long getLatencyP50Micros();
+	
+	/**
+	 * The 99th percentile latency of the successful requests.
+	 * @return Microseconds.
+	 */
+	long getLatencyP99Micros();
+	
+	/**
+	 * The 99.9th percentile latency of the successful requests.
+	 * @return Microseconds.
+	 */
+	long getLatencyP999Micros();
+	
+	/**
+	 * The maximum latency of the successful requests.
+	 * @return Microseconds.
+	 */
+	long getLatencyMaxMicros();
+}
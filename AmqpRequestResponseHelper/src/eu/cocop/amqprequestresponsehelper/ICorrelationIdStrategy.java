@@ -0,0 +1,37 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+/**
+ * Interface to generate correlation IDs. A correlation ID is generated from a sequence
+ * number, and it must be possible to parse the sequence number back from the ID. This
+ * enables the association of a response to a request without comparing strings.
+ * 
+ * Implementations must be thread-safe.
+ * @author Petri Kannisto
+ */
+public interface ICorrelationIdStrategy
+{
+	/**
+	 * Creates a correlation ID.
+	 * @param sequence Sequence number. This is never negative.
+	 * @return Correlation ID.
+	 */
+	String createCorrelationId(long sequence);
+	
+	/**
+	 * Parses the sequence number from a correlation ID.
+	 * @param correlationId Correlation ID.
+	 * @return Sequence number or -1 if the ID was not created by this object.
+	 */
+	long parseSequence(String correlationId);
+}
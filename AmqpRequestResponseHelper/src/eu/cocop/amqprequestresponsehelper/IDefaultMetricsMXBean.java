@@ -0,0 +1,37 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+/**
+ * The JMX interface of DefaultMetrics.
+ * @author Petri Kannisto
+ */
+public interface IDefaultMetricsMXBean
+{
+	/**
+	 * The number of responses that matched no pending request.
+	 * @return Count.
+	 */
+	long getUnexpectedCorrelationIds();
+	
+	/**
+	 * The topics that clients have sent requests to.
+	 * @return Topics.
+	 */
+	String[] getClientTopics();
+	
+	/**
+	 * The topics where servers have received requests.
+	 * @return Topics.
+	 */
+	String[] getServerTopics();
+}
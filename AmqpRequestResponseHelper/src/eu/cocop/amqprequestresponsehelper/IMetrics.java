@@ -0,0 +1,120 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+/**
+ * Receives the measurements of clients and servers. The methods are called in the threads
+ * that send, receive and handle requests, so an implementation must be thread-safe and
+ * return quickly. DefaultMetrics is an implementation that can be left on in production.
+ * 
+ * To measure clients, pass the metrics to ReplyRouter.setMetrics. To measure a server,
+ * pass the metrics to ServerOptions.setMetrics. The same object can measure any number
+ * of clients and servers.
+ * @author Petri Kannisto
+ */
+public interface IMetrics
+{
+	/**
+	 * How a request of a client completed.
+	 * @author Petri Kannisto
+	 */
+	public enum ClientOutcome
+	{
+		/**
+		 * The response arrived.
+		 */
+		Success,
+		/**
+		 * The response did not arrive in time.
+		 */
+		Timeout,
+		/**
+		 * The server rejected the request because it was overloaded.
+		 */
+		Overloaded,
+		/**
+		 * The request could not be sent, or the client became unusable.
+		 */
+		Failure,
+		/**
+		 * The request was cancelled, such as when the waiting thread was interrupted.
+		 */
+		Cancelled
+	}
+	
+	/**
+	 * How a server completed a request.
+	 * @author Petri Kannisto
+	 */
+	public enum ServerOutcome
+	{
+		/**
+		 * A response was sent.
+		 */
+		Responded,
+		/**
+		 * The request was handled, but no response was sent, such as when the handler failed.
+		 */
+		NoResponse,
+		/**
+		 * The request was dropped because its deadline had passed.
+		 */
+		Expired,
+		/**
+		 * The request was rejected because the server was overloaded.
+		 */
+		Overloaded,
+		/**
+		 * The request could not be handled, such as when the server was closed.
+		 */
+		Rejected
+	}
+	
+	/**
+	 * Called when a client is about to send a request.
+	 * @param targetTopic The topic that the request is sent to.
+	 */
+	void requestSent(String targetTopic);
+	
+	/**
+	 * Called when a request of a client completes. This is called exactly once for each
+	 * call of requestSent.
+	 * @param targetTopic The topic that the request was sent to.
+	 * @param outcome Outcome.
+	 * @param latencyNanos Nanoseconds from sending to completion.
+	 */
+	void requestCompleted(String targetTopic, ClientOutcome outcome, long latencyNanos);
+	
+	/**
+	 * Called when a client receives a response that matches no pending request.
+	 * Typically, the request has timed out already.
+	 */
+	void unexpectedCorrelationId();
+	
+	/**
+	 * Called when a server receives a request.
+	 * @param topic Server topic.
+	 */
+	void requestReceived(String topic);
+	
+	/**
+	 * Called when a server completes a request. This is called exactly once for each
+	 * call of requestReceived.
+	 * @param topic Server topic.
+	 * @param outcome Outcome.
+	 * @param waitNanos Nanoseconds from the arrival of the request until its handler was called
+	 * or, if the handler was not called, until completion.
+	 * @param handlerNanos Nanoseconds from calling the handler until completion or -1 if
+	 * the handler was not called.
+	 */
+	void requestServed(String topic, ServerOutcome outcome, long waitNanos, long handlerNanos);
+}
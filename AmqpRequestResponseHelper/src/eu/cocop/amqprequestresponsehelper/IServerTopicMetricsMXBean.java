@@ -0,0 +1,112 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+/**
+ * The JMX interface of the metrics of a server topic (see DefaultMetrics).
+ * The durations are in microseconds. The wait is the time from the arrival of
+ * a request until its handler is called, and the handler time is the time from
+ * that until the request is complete.
+ * @author Petri Kannisto
+ */
+public interface IServerTopicMetricsMXBean
+{
+	/**
+	 * The topic of the server.
+	 * @return Topic.
+	 */
+	String getTopic();
+	
+	/**
+	 * The number of requests received.
+	 * @return Count.
+	 */
+	long getRequestsReceived();
+	
+	/**
+	 * The number of requests that have been received but not completed.
+	 * @return Count.
+	 */
+	long getInFlight();
+	
+	/**
+	 * The number of requests responded to.
+	 * @return Count.
+	 */
+	long getResponded();
+	
+	/**
+	 * The number of requests handled without a response.
+	 * @return Count.
+	 */
+	long getNoResponse();
+	
+	/**
+	 * The number of requests dropped because their deadline had passed.
+	 * @return Count.
+	 */
+	long getExpired();
+	
+	/**
+	 * The number of requests rejected because the server was overloaded.
+	 * @return Count.
+	 */
+	long getOverloaded();
+	
+	/**
+	 * The number of requests that could not be handled.
+	 * @return Count.
+	 */
+	long getRejected();
+	
+	/**
+	 * The median wait of the handled requests.
+	 * @return Microseconds.
+	 */
+	long getWaitP50Micros();
+	
+	/**
+	 * The 99th percentile wait of the handled requests.
+	 * @return Microseconds.
+	 */
+	long getWaitP99Micros();
+	
+	/**
+	 * The mean handler time.
+	 * @return Microseconds.
+	 */
+	double getHandlerMeanMicros();
+	
+	/**
+	 * The median handler time.
+	 * @return Microseconds.
+	 */
+	long getHandlerP50Micros();
+	
+	/**
+	 * The 99th percentile handler time.
+	 * @return Microseconds.
+	 */
+	long getHandlerP99Micros();
+	
+	/**
+	 * The 99.9th percentile handler time.
+	 * @return Microseconds.
+	 */
+	long getHandlerP999Micros();
+	
+	/**
+	 * The maximum handler time.
+	 * @return Microseconds.
+	 */
+	long getHandlerMaxMicros();
+}
@@ -0,0 +1,174 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+
+/**
+ * The messaging operations that clients and servers need. RabbitMqTransport implements
+ * these over an AMQP channel, and LoopbackBroker creates transports that deliver the
+ * messages within the process. The model is that of AMQP: messages are published to
+ * topic exchanges, routed to the queues bound to the routing key, and delivered to
+ * the consumers of each queue. Publishing to the exchange "" delivers to the queue
+ * named by the routing key.
+ * 
+ * The methods can be called from multiple threads concurrently. Each library object
+ * has a consumer of its own, whereas multiple objects can share a transport.
+ * @author Petri Kannisto
+ */
+public interface ITransport
+{
+	/**
+	 * Receives the deliveries and state changes of a consumer.
+	 * @author Petri Kannisto
+	 */
+	interface IConsumer
+	{
+		/**
+		 * Called when the consumer has started, before any deliveries. This may occur
+		 * before consume has returned.
+		 * @param consumerTag Consumer tag.
+		 */
+		void handleConsumeOk(String consumerTag);
+		
+		/**
+		 * Called when a message is delivered.
+		 * @param consumerTag Consumer tag.
+		 * @param deliveryTag Delivery tag for ack or nack.
+		 * @param properties Properties.
+		 * @param body Message body.
+		 */
+		void handleDelivery(String consumerTag, long deliveryTag, BasicProperties properties, byte[] body);
+		
+		/**
+		 * Called when the consumer has been cancelled for another reason than cancel,
+		 * such as when its queue has been deleted.
+		 * @param consumerTag Consumer tag.
+		 */
+		void handleCancel(String consumerTag);
+		
+		/**
+		 * Called when the transport has shut down. No deliveries follow.
+		 * @param consumerTag Consumer tag.
+		 * @param reason The reason of the shutdown.
+		 * @param initiatedByApplication Whether the application caused the shutdown,
+		 * such as by closing the transport.
+		 */
+		void handleShutdown(String consumerTag, String reason, boolean initiatedByApplication);
+	}
+	
+	/**
+	 * Receives the notification if publishing fails after publish has returned.
+	 * @author Petri Kannisto
+	 */
+	interface IFailureHandler
+	{
+		/**
+		 * Called if publishing fails.
+		 * @param e Exception.
+		 */
+		void publishFailed(Exception e);
+	}
+	
+	/**
+	 * The pseudo-queue of RabbitMQ to receive replies without declaring a queue. A consumer
+	 * of this queue receives the messages published to the exchange "" with the routing key
+	 * that the transport has substituted for this name in the "reply to" property of the messages
+	 * that the same transport has published. See https://www.rabbitmq.com/direct-reply-to.html
+	 */
+	String DIRECT_REPLY_TO_QUEUE = "amq.rabbitmq.reply-to";
+	
+	/**
+	 * Declares a durable topic exchange unless it exists.
+	 * @param exchange Exchange name.
+	 * @throws IOException Thrown if an error occurs.
+	 */
+	void declareTopicExchange(String exchange) throws IOException;
+	
+	/**
+	 * Declares a queue unless it exists. A named queue is durable and retains its messages
+	 * while it has no consumers, whereas a queue with a generated name is deleted once
+	 * its last consumer has been cancelled.
+	 * @param queue Queue name or null to generate a name.
+	 * @param arguments Queue arguments (such as "x-max-priority") or null if none.
+	 * @return The name of the queue.
+	 * @throws IOException Thrown if an error occurs.
+	 */
+	String declareQueue(String queue, Map<String, Object> arguments) throws IOException;
+	
+	/**
+	 * Binds a queue to a routing key of an exchange unless already bound.
+	 * @param queue Queue name.
+	 * @param exchange Exchange name.
+	 * @param routingKey Routing key.
+	 * @throws IOException Thrown if an error occurs.
+	 */
+	void bindQueue(String queue, String exchange, String routingKey) throws IOException;
+	
+	/**
+	 * Starts a consumer.
+	 * @param queue Queue name.
+	 * @param autoAck If true, each message is considered acknowledged once delivered.
+	 * If false, the caller must call ack or nack for each delivery.
+	 * @param prefetchCount The maximum number of unacknowledged deliveries or 0 for no limit.
+	 * Has no effect if autoAck is true.
+	 * @param consumer Consumer.
+	 * @return Consumer tag.
+	 * @throws IOException Thrown if an error occurs.
+	 */
+	String consume(String queue, boolean autoAck, int prefetchCount, IConsumer consumer) throws IOException;
+	
+	/**
+	 * Cancels a consumer.
+	 * @param consumerTag Consumer tag.
+	 * @throws IOException Thrown if an error occurs.
+	 */
+	void cancel(String consumerTag) throws IOException;
+	
+	/**
+	 * Publishes a message. The implementation may publish asynchronously, in which case
+	 * a failure after return is reported to the failure handler. The messages published
+	 * from one thread are published in order.
+	 * @param exchange Exchange name.
+	 * @param routingKey Routing key.
+	 * @param properties Properties.
+	 * @param body Message body. Must not be modified afterwards.
+	 * @param failureHandler Notified if publishing fails after return. Can be null.
+	 * @throws IOException Thrown if the transport is unusable.
+	 */
+	void publish(String exchange, String routingKey, BasicProperties properties, byte[] body,
+			IFailureHandler failureHandler) throws IOException;
+	
+	/**
+	 * Acknowledges a delivery.
+	 * @param deliveryTag Delivery tag.
+	 * @throws IOException Thrown if the transport is unusable.
+	 */
+	void ack(long deliveryTag) throws IOException;
+	
+	/**
+	 * Rejects a delivery.
+	 * @param deliveryTag Delivery tag.
+	 * @param requeue Whether to requeue the message for another delivery.
+	 * @throws IOException Thrown if the transport is unusable.
+	 */
+	void nack(long deliveryTag, boolean requeue) throws IOException;
+	
+	/**
+	 * Closes the transport. Any messages already published are still delivered.
+	 * The consumers of the transport are notified of the shutdown as initiated by the application.
+	 */
+	void close();
+}
@@ -0,0 +1,854 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+
+/**
+ * A message broker within the process. The transports created by the broker route messages
+ * between the clients and servers of the process like an AMQP broker would, but without
+ * a network hop and without copying or serialising the messages. Use this to run co-located
+ * services in one process or to measure performance without a broker.
+ * 
+ * The broker implements topic exchanges (including the wildcards "*" and "#"), the exchange
+ * "" that routes by queue name, queues shared by multiple consumers in round-robin fashion,
+ * manual acknowledgements with prefetch limits, priority queues (the argument "x-max-priority")
+ * and the direct reply-to pseudo-queue. Other queue arguments are ignored, and nothing is
+ * persisted.
+ * 
+ * A message is delivered in the thread that publishes it. However, the deliveries to a consumer
+ * never overlap: if the consumer is busy in another thread, the message is queued, and that
+ * thread delivers it after the current one. Therefore, a publishing thread may deliver messages
+ * published by other threads as well. If no consumer can take a message, it waits in the queue.
+ * 
+ * The broker and its transports are thread-safe.
+ * @author Petri Kannisto
+ */
+public class LoopbackBroker
+{
+	// Guards the changes of exchanges, queues and bindings. Publishing reads them without locking.
+	private final Object m_lockObject = new Object();
+	
+	private final ConcurrentHashMap<String, Exchange> m_exchanges = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, LoopbackQueue> m_queues = new ConcurrentHashMap<>();
+	
+	// Used to generate queue names and consumer tags
+	private final AtomicLong m_nameCounter = new AtomicLong(0);
+	
+	
+	/**
+	 * Constructor.
+	 */
+	public LoopbackBroker()
+	{
+		// Empty ctor body
+	}
+	
+	/**
+	 * Creates a transport. Close the transport once it is no longer needed.
+	 * @return Transport.
+	 */
+	public ITransport createTransport()
+	{
+		return new LoopbackTransport();
+	}
+	
+	
+	// ### Private methods ###
+	
+	private String generateName(String prefix)
+	{
+		return prefix + m_nameCounter.incrementAndGet();
+	}
+	
+	private LoopbackQueue declareQueue(String name, boolean autoDelete, Map<String, Object> arguments)
+	{
+		synchronized (m_lockObject)
+		{
+			LoopbackQueue queue = m_queues.get(name);
+			
+			if (queue == null)
+			{
+				queue = new LoopbackQueue(name, autoDelete, getMaxPriority(arguments));
+				m_queues.put(name, queue);
+			}
+			
+			return queue;
+		}
+	}
+	
+	private static int getMaxPriority(Map<String, Object> arguments)
+	{
+		Object value = arguments == null ? null : arguments.get("x-max-priority");
+		
+		// Like in RabbitMQ, at most 255 priorities
+		return value instanceof Number ? Math.max(Math.min(((Number)value).intValue(), 255), 0) : 0;
+	}
+	
+	private void deleteQueue(LoopbackQueue queue)
+	{
+		synchronized (m_lockObject)
+		{
+			m_queues.remove(queue.m_name, queue);
+			
+			for (Exchange exchange : m_exchanges.values())
+			{
+				exchange.unbindAll(queue);
+			}
+		}
+	}
+	
+	private void route(String exchangeName, String routingKey, Message message) throws IOException
+	{
+		// The default exchange routes to the queue named by the routing key
+		if (exchangeName.isEmpty())
+		{
+			LoopbackQueue queue = m_queues.get(routingKey);
+			
+			if (queue != null)
+			{
+				queue.enqueue(message);
+			}
+			
+			return;
+		}
+		
+		Exchange exchange = m_exchanges.get(exchangeName);
+		
+		if (exchange == null)
+		{
+			throw new IOException("No exchange \"" + exchangeName + "\" has been declared");
+		}
+		
+		exchange.route(routingKey, message);
+	}
+	
+	
+	/**
+	 * A published message. The body and properties are shared, not copied.
+	 */
+	private static final class Message
+	{
+		private final BasicProperties m_properties;
+		private final byte[] m_body;
+		
+		
+		private Message(BasicProperties properties, byte[] body)
+		{
+			m_properties = properties;
+			m_body = body;
+		}
+	}
+	
+	/**
+	 * A binding of a queue to a routing key.
+	 */
+	private static final class Binding
+	{
+		private final LoopbackQueue m_queue;
+		private final String m_routingKey;
+		
+		// The words of the routing key if it has wildcards; otherwise, null
+		private final String[] m_pattern;
+		
+		
+		private Binding(LoopbackQueue queue, String routingKey)
+		{
+			m_queue = queue;
+			m_routingKey = routingKey;
+			m_pattern = routingKey.contains("*") || routingKey.contains("#") ? routingKey.split("\\.", -1) : null;
+		}
+		
+		private boolean matches(String[] words)
+		{
+			return matches(0, words, 0);
+		}
+		
+		private boolean matches(int patternIndex, String[] words, int wordIndex)
+		{
+			if (patternIndex == m_pattern.length)
+			{
+				return wordIndex == words.length;
+			}
+			
+			String patternWord = m_pattern[patternIndex];
+			
+			// "#" matches zero or more words
+			if (patternWord.equals("#"))
+			{
+				for (int i = wordIndex; i <= words.length; ++i)
+				{
+					if (matches(patternIndex + 1, words, i))
+					{
+						return true;
+					}
+				}
+				
+				return false;
+			}
+			
+			// "*" matches exactly one word
+			if (wordIndex == words.length || (!patternWord.equals("*") && !patternWord.equals(words[wordIndex])))
+			{
+				return false;
+			}
+			
+			return matches(patternIndex + 1, words, wordIndex + 1);
+		}
+	}
+	
+	/**
+	 * The routing table of an exchange. Immutable, so publishing reads it without locking.
+	 */
+	private static final class Routes
+	{
+		private static final Routes EMPTY = new Routes(new HashMap<>(), new Binding[0]);
+		
+		private final HashMap<String, LoopbackQueue[]> m_exact;
+		private final Binding[] m_patterns;
+		
+		
+		private Routes(HashMap<String, LoopbackQueue[]> exact, Binding[] patterns)
+		{
+			m_exact = exact;
+			m_patterns = patterns;
+		}
+	}
+	
+	/**
+	 * A topic exchange.
+	 */
+	private static final class Exchange
+	{
+		// Guarded by the lock of the broker
+		private final ArrayList<Binding> m_bindings = new ArrayList<>();
+		
+		// Rebuilt from the bindings after each change
+		private volatile Routes m_routes = Routes.EMPTY;
+		
+		
+		private Exchange()
+		{
+			// Empty ctor body
+		}
+		
+		private void bind(LoopbackQueue queue, String routingKey)
+		{
+			for (Binding binding : m_bindings)
+			{
+				if (binding.m_queue == queue && binding.m_routingKey.equals(routingKey))
+				{
+					return; // Bound already
+				}
+			}
+			
+			m_bindings.add(new Binding(queue, routingKey));
+			rebuildRoutes();
+		}
+		
+		private void unbindAll(LoopbackQueue queue)
+		{
+			if (m_bindings.removeIf(binding -> binding.m_queue == queue))
+			{
+				rebuildRoutes();
+			}
+		}
+		
+		private void rebuildRoutes()
+		{
+			HashMap<String, ArrayList<LoopbackQueue>> exactLists = new HashMap<>();
+			ArrayList<Binding> patterns = new ArrayList<>();
+			
+			for (Binding binding : m_bindings)
+			{
+				if (binding.m_pattern == null)
+				{
+					exactLists.computeIfAbsent(binding.m_routingKey, key -> new ArrayList<>()).add(binding.m_queue);
+				}
+				else
+				{
+					patterns.add(binding);
+				}
+			}
+			
+			HashMap<String, LoopbackQueue[]> exact = new HashMap<>();
+			
+			for (Map.Entry<String, ArrayList<LoopbackQueue>> entry : exactLists.entrySet())
+			{
+				exact.put(entry.getKey(), entry.getValue().toArray(new LoopbackQueue[0]));
+			}
+			
+			m_routes = new Routes(exact, patterns.toArray(new Binding[0]));
+		}
+		
+		private void route(String routingKey, Message message)
+		{
+			Routes routes = m_routes;
+			LoopbackQueue[] exact = routes.m_exact.get(routingKey);
+			
+			// The usual case: no wildcards, so no need to check for duplicates
+			if (routes.m_patterns.length == 0)
+			{
+				if (exact != null)
+				{
+					for (LoopbackQueue queue : exact)
+					{
+						queue.enqueue(message);
+					}
+				}
+				
+				return;
+			}
+			
+			// Each queue receives the message once even if multiple bindings match
+			ArrayList<LoopbackQueue> targets = new ArrayList<>();
+			
+			if (exact != null)
+			{
+				for (LoopbackQueue queue : exact)
+				{
+					targets.add(queue);
+				}
+			}
+			
+			String[] words = routingKey.split("\\.", -1);
+			
+			for (Binding binding : routes.m_patterns)
+			{
+				if (!targets.contains(binding.m_queue) && binding.matches(words))
+				{
+					targets.add(binding.m_queue);
+				}
+			}
+			
+			for (LoopbackQueue queue : targets)
+			{
+				queue.enqueue(message);
+			}
+		}
+	}
+	
+	/**
+	 * A queue. The messages wait here only if no consumer can take them.
+	 */
+	private final class LoopbackQueue
+	{
+		private final String m_name;
+		private final boolean m_autoDelete;
+		private final int m_maxPriority;
+		
+		// The waiting messages of each priority. Guarded by this.
+		private final ArrayList<ArrayDeque<Message>> m_buffers = new ArrayList<>();
+		private int m_bufferedCount = 0;
+		
+		// Guarded by this
+		private final ArrayList<Subscription> m_subscriptions = new ArrayList<>();
+		private int m_nextSubscription = 0;
+		private boolean m_deleted = false;
+		
+		
+		private LoopbackQueue(String name, boolean autoDelete, int maxPriority)
+		{
+			m_name = name;
+			m_autoDelete = autoDelete;
+			m_maxPriority = maxPriority;
+			
+			for (int i = 0; i <= maxPriority; ++i)
+			{
+				m_buffers.add(new ArrayDeque<>());
+			}
+		}
+		
+		private void enqueue(Message message)
+		{
+			Subscription target = null;
+			long deliveryTag = 0;
+			
+			synchronized (this)
+			{
+				// The routes may still include a queue that was just deleted
+				if (m_deleted)
+				{
+					return;
+				}
+				
+				// Any waiting messages go first
+				if (m_bufferedCount == 0)
+				{
+					target = selectSubscription();
+				}
+				
+				if (target == null)
+				{
+					getBuffer(message).addLast(message);
+					++m_bufferedCount;
+					return;
+				}
+				
+				deliveryTag = target.register(message);
+			}
+			
+			target.deliver(deliveryTag, message);
+		}
+		
+		private void dispatchWaiting()
+		{
+			while (true)
+			{
+				Subscription target = null;
+				Message message = null;
+				long deliveryTag = 0;
+				
+				synchronized (this)
+				{
+					if (m_bufferedCount == 0)
+					{
+						return;
+					}
+					
+					target = selectSubscription();
+					
+					if (target == null)
+					{
+						return;
+					}
+					
+					message = pollBuffer();
+					deliveryTag = target.register(message);
+				}
+				
+				target.deliver(deliveryTag, message);
+			}
+		}
+		
+		private void subscribe(Subscription subscription)
+		{
+			synchronized (this)
+			{
+				m_subscriptions.add(subscription);
+			}
+			
+			dispatchWaiting();
+		}
+		
+		private void unsubscribe(Subscription subscription)
+		{
+			boolean delete = false;
+			
+			synchronized (this)
+			{
+				if (!m_subscriptions.remove(subscription))
+				{
+					return;
+				}
+				
+				// Requeueing the unacknowledged messages in their original order
+				for (Map.Entry<Long, Message> entry : subscription.m_unacked.entrySet())
+				{
+					subscription.m_transport.m_deliveries.remove(entry.getKey());
+				}
+				
+				ArrayList<Long> tags = new ArrayList<>(subscription.m_unacked.keySet());
+				tags.sort(null);
+				
+				for (int i = tags.size() - 1; i >= 0; --i)
+				{
+					Message message = subscription.m_unacked.get(tags.get(i));
+					getBuffer(message).addFirst(message);
+					++m_bufferedCount;
+				}
+				
+				subscription.m_unacked.clear();
+				
+				// A queue with a generated name is deleted with its last consumer
+				if (m_autoDelete && m_subscriptions.isEmpty())
+				{
+					m_deleted = true;
+					delete = true;
+				}
+			}
+			
+			if (delete)
+			{
+				deleteQueue(this);
+			}
+			else
+			{
+				dispatchWaiting();
+			}
+		}
+		
+		private void settle(Subscription subscription, long deliveryTag, boolean requeue)
+		{
+			synchronized (this)
+			{
+				Message message = subscription.m_unacked.remove(deliveryTag);
+				
+				if (message != null && requeue && !m_deleted)
+				{
+					getBuffer(message).addFirst(message);
+					++m_bufferedCount;
+				}
+			}
+			
+			// The consumer may be able to take more messages now
+			dispatchWaiting();
+		}
+		
+		private Subscription selectSubscription()
+		{
+			// Round robin among the consumers that have not reached their prefetch limit
+			int count = m_subscriptions.size();
+			
+			for (int i = 0; i < count; ++i)
+			{
+				int index = (m_nextSubscription + i) % count;
+				Subscription subscription = m_subscriptions.get(index);
+				
+				if (subscription.hasCapacity())
+				{
+					m_nextSubscription = (index + 1) % count;
+					return subscription;
+				}
+			}
+			
+			return null;
+		}
+		
+		private ArrayDeque<Message> getBuffer(Message message)
+		{
+			Integer priority = message.m_properties == null ? null : message.m_properties.getPriority();
+			int index = priority == null ? 0 : Math.max(Math.min(priority, m_maxPriority), 0);
+			return m_buffers.get(index);
+		}
+		
+		private Message pollBuffer()
+		{
+			// The highest priority first
+			for (int i = m_maxPriority; i >= 0; --i)
+			{
+				Message message = m_buffers.get(i).pollFirst();
+				
+				if (message != null)
+				{
+					--m_bufferedCount;
+					return message;
+				}
+			}
+			
+			return null; // Should not occur
+		}
+	}
+	
+	/**
+	 * A consumer of a queue.
+	 */
+	private final class Subscription
+	{
+		private final LoopbackTransport m_transport;
+		private final LoopbackQueue m_queue;
+		private final String m_consumerTag;
+		private final boolean m_autoAck;
+		private final int m_prefetchCount;
+		private final ITransport.IConsumer m_consumer;
+		
+		// The unacknowledged deliveries. Guarded by the lock of the queue.
+		private final HashMap<Long, Message> m_unacked = new HashMap<>();
+		
+		// The deliveries and notifications that wait for the consumer to be free
+		private final ConcurrentLinkedQueue<Runnable> m_mailbox = new ConcurrentLinkedQueue<>();
+		private final AtomicBoolean m_delivering = new AtomicBoolean(false);
+		
+		
+		private Subscription(LoopbackTransport transport, LoopbackQueue queue, String consumerTag,
+				boolean autoAck, int prefetchCount, ITransport.IConsumer consumer)
+		{
+			m_transport = transport;
+			m_queue = queue;
+			m_consumerTag = consumerTag;
+			m_autoAck = autoAck;
+			m_prefetchCount = autoAck ? 0 : prefetchCount;
+			m_consumer = consumer;
+		}
+		
+		// Called with the lock of the queue
+		private boolean hasCapacity()
+		{
+			return m_prefetchCount <= 0 || m_unacked.size() < m_prefetchCount;
+		}
+		
+		// Called with the lock of the queue
+		private long register(Message message)
+		{
+			long deliveryTag = m_transport.m_deliveryTagCounter.incrementAndGet();
+			
+			if (!m_autoAck)
+			{
+				m_unacked.put(deliveryTag, message);
+				m_transport.m_deliveries.put(deliveryTag, this);
+			}
+			
+			return deliveryTag;
+		}
+		
+		private void deliver(long deliveryTag, Message message)
+		{
+			post(() -> m_consumer.handleDelivery(m_consumerTag, deliveryTag, message.m_properties, message.m_body));
+		}
+		
+		private void post(Runnable action)
+		{
+			m_mailbox.add(action);
+			
+			// The thread that finds the consumer free delivers until the mailbox is empty.
+			// The check is repeated in case another thread posted just before the release.
+			while (!m_mailbox.isEmpty() && m_delivering.compareAndSet(false, true))
+			{
+				Runnable next = null;
+				
+				while ((next = m_mailbox.poll()) != null)
+				{
+					try
+					{
+						next.run();
+					}
+					catch (Exception e)
+					{} // No can do; the consumer should not throw
+				}
+				
+				m_delivering.set(false);
+			}
+		}
+	}
+	
+	/**
+	 * A transport of the broker. Corresponds to an AMQP channel: delivery tags
+	 * are per transport, and each transport can have one direct reply-to consumer.
+	 */
+	private final class LoopbackTransport implements ITransport
+	{
+		private final AtomicLong m_deliveryTagCounter = new AtomicLong(0);
+		
+		// The subscription of each unacknowledged delivery
+		private final ConcurrentHashMap<Long, Subscription> m_deliveries = new ConcurrentHashMap<>();
+		
+		// The subscription of each consumer tag
+		private final ConcurrentHashMap<String, Subscription> m_subscriptions = new ConcurrentHashMap<>();
+		
+		// The queue that substitutes the direct reply-to pseudo-queue; null if not consumed
+		private volatile String m_replyQueue = null;
+		
+		private volatile boolean m_closed = false;
+		
+		
+		private LoopbackTransport()
+		{
+			// Empty ctor body
+		}
+		
+		@Override
+		public void declareTopicExchange(String exchange) throws IOException
+		{
+			expectOpen();
+			m_exchanges.computeIfAbsent(exchange, name -> new Exchange());
+		}
+		
+		@Override
+		public String declareQueue(String queue, Map<String, Object> arguments) throws IOException
+		{
+			expectOpen();
+			
+			boolean autoDelete = queue == null;
+			String name = autoDelete ? generateName("loopback.gen-") : queue;
+			return LoopbackBroker.this.declareQueue(name, autoDelete, arguments).m_name;
+		}
+		
+		@Override
+		public void bindQueue(String queue, String exchange, String routingKey) throws IOException
+		{
+			expectOpen();
+			
+			synchronized (m_lockObject)
+			{
+				Exchange exchangeObj = m_exchanges.get(exchange);
+				LoopbackQueue queueObj = m_queues.get(queue);
+				
+				if (exchangeObj == null || queueObj == null)
+				{
+					throw new IOException("Cannot bind \"" + queue + "\" to \"" + exchange + "\"; not declared");
+				}
+				
+				exchangeObj.bind(queueObj, routingKey);
+			}
+		}
+		
+		@Override
+		public String consume(String queue, boolean autoAck, int prefetchCount, IConsumer consumer)
+				throws IOException
+		{
+			expectOpen();
+			
+			LoopbackQueue queueObj = null;
+			
+			if (DIRECT_REPLY_TO_QUEUE.equals(queue))
+			{
+				// Emulating the pseudo-queue with a private queue. As in RabbitMQ,
+				// the name starts with that of the pseudo-queue.
+				if (!autoAck || m_replyQueue != null)
+				{
+					throw new IOException("The direct reply-to requires auto-ack and a single consumer per transport");
+				}
+				
+				queueObj = LoopbackBroker.this.declareQueue(generateName(DIRECT_REPLY_TO_QUEUE + ".loopback-"), true, null);
+				m_replyQueue = queueObj.m_name;
+			}
+			else
+			{
+				queueObj = m_queues.get(queue);
+				
+				if (queueObj == null)
+				{
+					throw new IOException("No queue \"" + queue + "\" has been declared");
+				}
+			}
+			
+			String consumerTag = generateName("loopback.ctag-");
+			Subscription subscription = new Subscription(this, queueObj, consumerTag, autoAck, prefetchCount, consumer);
+			m_subscriptions.put(consumerTag, subscription);
+			
+			// As in AMQP, the consumer learns its tag before the first delivery
+			subscription.post(() -> consumer.handleConsumeOk(consumerTag));
+			queueObj.subscribe(subscription);
+			
+			// In case the transport was closed meanwhile
+			if (m_closed && m_subscriptions.remove(consumerTag) != null)
+			{
+				unsubscribe(subscription);
+				throw new IOException("The transport has been closed");
+			}
+			
+			return consumerTag;
+		}
+		
+		@Override
+		public void cancel(String consumerTag) throws IOException
+		{
+			Subscription subscription = m_subscriptions.remove(consumerTag);
+			
+			if (subscription == null)
+			{
+				throw new IOException("Unknown consumer tag \"" + consumerTag + "\"");
+			}
+			
+			unsubscribe(subscription);
+		}
+		
+		@Override
+		public void publish(String exchange, String routingKey, BasicProperties properties, byte[] body,
+				IFailureHandler failureHandler)
+				throws IOException
+		{
+			expectOpen();
+			
+			BasicProperties props = properties;
+			
+			// Replacing the pseudo-queue with the queue that substitutes it
+			if (props != null && DIRECT_REPLY_TO_QUEUE.equals(props.getReplyTo()))
+			{
+				String replyQueue = m_replyQueue;
+				
+				if (replyQueue == null)
+				{
+					throw new IOException("The transport does not consume the direct reply-to pseudo-queue");
+				}
+				
+				props = props.builder().replyTo(replyQueue).build();
+			}
+			
+			// Delivering synchronously, so the failure handler is not needed
+			route(exchange, routingKey, new Message(props, body));
+		}
+		
+		@Override
+		public void ack(long deliveryTag) throws IOException
+		{
+			settle(deliveryTag, false);
+		}
+		
+		@Override
+		public void nack(long deliveryTag, boolean requeue) throws IOException
+		{
+			settle(deliveryTag, requeue);
+		}
+		
+		@Override
+		public void close()
+		{
+			m_closed = true;
+			
+			// The unacknowledged messages are requeued for other consumers
+			Iterator<Subscription> iterator = m_subscriptions.values().iterator();
+			
+			while (iterator.hasNext())
+			{
+				Subscription subscription = iterator.next();
+				iterator.remove();
+				unsubscribe(subscription);
+				subscription.post(() -> subscription.m_consumer.handleShutdown(subscription.m_consumerTag,
+						"The transport has been closed", true));
+			}
+		}
+		
+		private void unsubscribe(Subscription subscription)
+		{
+			subscription.m_queue.unsubscribe(subscription);
+			
+			// The pseudo-queue can be consumed again once cancelled
+			if (subscription.m_queue.m_name.equals(m_replyQueue))
+			{
+				m_replyQueue = null;
+			}
+		}
+		
+		private void settle(long deliveryTag, boolean requeue) throws IOException
+		{
+			expectOpen();
+			
+			Subscription subscription = m_deliveries.remove(deliveryTag);
+			
+			// If not found, the consumer has been cancelled, and the message requeued already
+			if (subscription != null)
+			{
+				subscription.m_queue.settle(subscription, deliveryTag, requeue);
+			}
+		}
+		
+		private void expectOpen() throws IOException
+		{
+			if (m_closed)
+			{
+				throw new IOException("The transport has been closed");
+			}
+		}
+	}
+}
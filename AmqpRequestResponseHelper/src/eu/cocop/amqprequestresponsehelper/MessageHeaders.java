@@ -0,0 +1,114 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.util.Map;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+
+/**
+ * The names of the AMQP headers that the client and server of this library use.
+ * These are relevant if you implement a client or server with other software.
+ * @author Petri Kannisto
+ */
+public final class MessageHeaders
+{
+	/**
+	 * Request header: the name of the requested operation (string). The server
+	 * routes the request to the handler of this operation.
+	 */
+	public static final String OPERATION = "cocop-operation";
+	
+	/**
+	 * Request header: the absolute deadline of the request as milliseconds since the
+	 * Unix epoch (long). Once the deadline has passed, the client is no longer waiting for
+	 * the response, and the server drops the request. This requires that the clocks of
+	 * the client and server are synchronised.
+	 */
+	public static final String DEADLINE = "cocop-deadline";
+	
+	/**
+	 * Response header: the status of the request (string). If the header is not set,
+	 * the request was handled, and the body is the response.
+	 */
+	public static final String STATUS = "cocop-status";
+	
+	/**
+	 * The value of the STATUS header when the server has rejected the request
+	 * because it is overloaded. The body of the response is empty.
+	 */
+	public static final String STATUS_OVERLOADED = "overloaded";
+	
+	
+	private MessageHeaders()
+	{
+		// Private ctor -> no instances
+	}
+	
+	/**
+	 * Returns the value of a header as a long.
+	 * @param properties Message properties.
+	 * @param name Header name.
+	 * @param defaultValue The value to return if the header is not set or not a number.
+	 * @return Value.
+	 */
+	static long getLong(BasicProperties properties, String name, long defaultValue)
+	{
+		Map<String, Object> headers = properties.getHeaders();
+		
+		if (headers == null)
+		{
+			return defaultValue;
+		}
+		
+		Object value = headers.get(name);
+		
+		if (value instanceof Number)
+		{
+			return ((Number)value).longValue();
+		}
+		else if (value != null)
+		{
+			// Possibly, another client sent the value as a string
+			try
+			{
+				return Long.parseLong(value.toString());
+			}
+			catch (NumberFormatException e)
+			{
+				return defaultValue;
+			}
+		}
+		
+		return defaultValue;
+	}
+	
+	/**
+	 * Returns the value of a header as a string.
+	 * @param properties Message properties.
+	 * @param name Header name.
+	 * @return Value or null if not set.
+	 */
+	static String getString(BasicProperties properties, String name)
+	{
+		Map<String, Object> headers = properties.getHeaders();
+		
+		if (headers == null)
+		{
+			return null;
+		}
+		
+		// String values arrive as LongString objects
+		Object value = headers.get(name);
+		return value == null ? null : value.toString();
+	}
+}
@@ -0,0 +1,191 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ShutdownSignalException;
+
+/**
+ * A transport over an AMQP channel. The declarations are cached per connection, and
+ * publications and acknowledgements are performed by the single publishing thread
+ * of the channel. Therefore, multiple transports and library objects can share a channel.
+ * @author Petri Kannisto
+ */
+public class RabbitMqTransport implements ITransport
+{
+	private final Channel m_channel;
+	private final ChannelPublisher m_publisher;
+	private final boolean m_closeChannel;
+	
+	// The queues declared with a generated name. Their bindings are not cached,
+	// because each of them is bound only once.
+	private final Set<String> m_generatedQueues = ConcurrentHashMap.newKeySet();
+	
+	
+	/**
+	 * Constructor. The channel is left open when the transport is closed.
+	 * @param channel Channel.
+	 */
+	public RabbitMqTransport(Channel channel)
+	{
+		this(channel, false);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param channel Channel.
+	 * @param closeChannel Whether to close the channel once the transport is closed
+	 * and the messages already published have been sent.
+	 */
+	public RabbitMqTransport(Channel channel, boolean closeChannel)
+	{
+		m_channel = channel;
+		m_closeChannel = closeChannel;
+		m_publisher = ChannelPublisher.acquire(channel);
+	}
+	
+	/**
+	 * Returns the channel.
+	 * @return Channel.
+	 */
+	public Channel getChannel()
+	{
+		return m_channel;
+	}
+	
+	@Override
+	public void declareTopicExchange(String exchange) throws IOException
+	{
+		TopologyCache.get(m_channel).declareTopicExchange(m_channel, exchange);
+	}
+	
+	@Override
+	public String declareQueue(String queue, Map<String, Object> arguments) throws IOException
+	{
+		String retval = TopologyCache.get(m_channel).declareQueue(m_channel, queue, arguments);
+		
+		if (queue == null)
+		{
+			m_generatedQueues.add(retval);
+		}
+		
+		return retval;
+	}
+	
+	@Override
+	public void bindQueue(String queue, String exchange, String routingKey) throws IOException
+	{
+		boolean cacheable = !m_generatedQueues.contains(queue);
+		TopologyCache.get(m_channel).bindQueue(m_channel, queue, exchange, routingKey, cacheable);
+	}
+	
+	@Override
+	public String consume(String queue, boolean autoAck, int prefetchCount, IConsumer consumer)
+			throws IOException
+	{
+		// Limiting the unacknowledged deliveries so that the broker keeps the
+		// rest of the messages instead of pushing them all to this process
+		if (!autoAck && prefetchCount > 0)
+		{
+			m_channel.basicQos(prefetchCount);
+		}
+		
+		return m_channel.basicConsume(queue, autoAck, new ConsumerAdapter(m_channel, consumer));
+	}
+	
+	@Override
+	public void cancel(String consumerTag) throws IOException
+	{
+		m_channel.basicCancel(consumerTag);
+	}
+	
+	@Override
+	public void publish(String exchange, String routingKey, BasicProperties properties, byte[] body,
+			IFailureHandler failureHandler)
+			throws IOException
+	{
+		m_publisher.publish(exchange, routingKey, properties, body, failureHandler);
+	}
+	
+	@Override
+	public void ack(long deliveryTag) throws IOException
+	{
+		m_publisher.ack(deliveryTag);
+	}
+	
+	@Override
+	public void nack(long deliveryTag, boolean requeue) throws IOException
+	{
+		m_publisher.nack(deliveryTag, requeue);
+	}
+	
+	@Override
+	public void close()
+	{
+		// Any queued publications and acks are still sent
+		m_publisher.release(m_closeChannel);
+	}
+	
+	
+	/**
+	 * Passes the events of an AMQP consumer to a transport consumer.
+	 */
+	private static final class ConsumerAdapter extends DefaultConsumer
+	{
+		private final IConsumer m_consumer;
+		
+		
+		private ConsumerAdapter(Channel channel, IConsumer consumer)
+		{
+			super(channel);
+			m_consumer = consumer;
+		}
+		
+		@Override
+		public void handleConsumeOk(String consumerTag)
+		{
+			m_consumer.handleConsumeOk(consumerTag);
+		}
+		
+		@Override
+		public void handleDelivery(String consumerTag, Envelope envelope, BasicProperties properties, byte[] body)
+		{
+			m_consumer.handleDelivery(consumerTag, envelope.getDeliveryTag(), properties, body);
+		}
+		
+		@Override
+		public void handleCancel(String consumerTag)
+		{
+			m_consumer.handleCancel(consumerTag);
+		}
+		
+		@Override
+		public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig)
+		{
+			// Whatever caused the shutdown may have affected the declarations as well
+			if (!sig.isInitiatedByApplication())
+			{
+				TopologyCache.invalidate(getChannel());
+			}
+			
+			m_consumer.handleShutdown(consumerTag, sig.getMessage(), sig.isInitiatedByApplication());
+		}
+	}
+}
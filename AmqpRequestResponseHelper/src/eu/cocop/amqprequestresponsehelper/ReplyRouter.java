@@ -0,0 +1,521 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Channel;
+
+/**
+ * Receives the responses of request-response clients and dispatches each response to
+ * the request it belongs to. The object holds a single reply queue and consumer.
+ * 
+ * To avoid declaring a reply queue and consumer for each client, create one
+ * router per connection and pass it to each RequestResponseClient. Then, creating
+ * a client requires no round trips to the broker, and the number of queues and
+ * consumers in the broker stays constant regardless of the number of clients.
+ * 
+ * Once the router is closed or its consumer becomes inactive, any pending requests fail
+ * immediately. If created with a channel, this class *does not* recover from a connection loss
+ * or channel shutdown. In such a situation, you must re-create the router and each client that
+ * uses it. If created with a channel factory, the router recovers by itself, and the clients
+ * that use it remain usable (see setReplayOnRecovery).
+ * @author Petri Kannisto
+ */
+public class ReplyRouter extends ConsumerHolderBase
+{
+	// This timer enforces the timeouts of requests. It is shared by all
+	// routers, because a timeout task only hands the future over to the executor below.
+	private static final HashedWheelTimer TIMEOUT_TIMER =
+			new HashedWheelTimer("ReplyRouter-timeouts", 10, TimeUnit.MILLISECONDS, 512);
+	
+	// The maximum number of threads that complete timed-out futures
+	private static final int TIMEOUT_THREAD_COUNT = Math.min(4, Runtime.getRuntime().availableProcessors());
+	
+	// Completes the timed-out futures. The dependent actions of a future run in the
+	// completing thread, so a slow action must not hold up the timer of every router.
+	// The threads are few so that a mass timeout, e.g., when the broker stalls, only
+	// queues the futures instead of starting a thread for each.
+	private static final ThreadPoolExecutor TIMEOUT_EXECUTOR = createTimeoutExecutor();
+	
+	private final String m_exchangeName;
+	
+	private final ICorrelationIdStrategy m_correlationIdStrategy;
+	
+	// The sequence number of the most recent correlation ID
+	private final AtomicLong m_correlationSequence = new AtomicLong(-1);
+	
+	// Pending requests by the sequence number of correlation ID. Correlation ID enables
+	// the association of a response to a particular request. For each pending request,
+	// there is a future that will be completed when the response arrives.
+    private final ConcurrentLongMap<PendingRequest> m_pendingRequests =
+    		new ConcurrentLongMap<>();
+    
+    // Whether the pending requests are sent again after recovery instead of failing
+    private volatile boolean m_replayOnRecovery = false;
+    
+    // Receives the measurements of the requests; null if not measured
+    private volatile IMetrics m_metrics = null;
+	
+	
+	/**
+	 * Constructor. The router declares a reply queue of its own.
+	 * @param channel Channel. The clients that use the router publish their requests via this channel.
+	 * @param excName Exchange name.
+	 * @throws IOException Thrown if an error occurs.
+	 */
+	public ReplyRouter(Channel channel, String excName)
+			throws IOException
+	{
+		this(channel, excName, RequestResponseClient.ReplyMode.ReplyQueue);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param channel Channel. The clients that use the router publish their requests via this channel.
+	 * @param excName Exchange name.
+	 * @param replyMode How responses are received.
+	 * @throws IOException Thrown if an error occurs.
+	 */
+	public ReplyRouter(Channel channel, String excName, RequestResponseClient.ReplyMode replyMode)
+			throws IOException
+	{
+		this(channel, excName, replyMode, new SequenceCorrelationIdStrategy());
+	}
+	
+	/**
+	 * Constructor.
+	 * @param channel Channel. The clients that use the router publish their requests via this channel.
+	 * @param excName Exchange name.
+	 * @param replyMode How responses are received.
+	 * @param corrIdStrategy Strategy to generate correlation IDs.
+	 * @throws IOException Thrown if an error occurs.
+	 */
+	public ReplyRouter(Channel channel, String excName, RequestResponseClient.ReplyMode replyMode,
+			ICorrelationIdStrategy corrIdStrategy)
+			throws IOException
+	{
+		super(channel, excName, null, replyMode == RequestResponseClient.ReplyMode.DirectReplyTo);
+		
+		m_exchangeName = excName;
+		m_correlationIdStrategy = corrIdStrategy;
+	}
+	
+	/**
+	 * Constructor. Use this to communicate via a transport, such as one of LoopbackBroker.
+	 * Closing the router does not close the transport.
+	 * @param transport Transport. The clients that use the router publish their requests via this transport.
+	 * @param excName Exchange name.
+	 * @param replyMode How responses are received.
+	 * @throws IOException Thrown if an error occurs.
+	 */
+	public ReplyRouter(ITransport transport, String excName, RequestResponseClient.ReplyMode replyMode)
+			throws IOException
+	{
+		this(transport, excName, replyMode, new SequenceCorrelationIdStrategy());
+	}
+	
+	/**
+	 * Constructor. Use this to communicate via a transport.
+	 * @param transport Transport.
+	 * @param excName Exchange name.
+	 * @param replyMode How responses are received.
+	 * @param corrIdStrategy Strategy to generate correlation IDs.
+	 * @throws IOException Thrown if an error occurs.
+	 */
+	public ReplyRouter(ITransport transport, String excName, RequestResponseClient.ReplyMode replyMode,
+			ICorrelationIdStrategy corrIdStrategy)
+			throws IOException
+	{
+		super(transport, excName, null, replyMode == RequestResponseClient.ReplyMode.DirectReplyTo,
+				null, true, 0, null);
+		
+		m_exchangeName = excName;
+		m_correlationIdStrategy = corrIdStrategy;
+	}
+	
+	/**
+	 * Constructor. Use this to create a router that recovers from channel shutdowns.
+	 * After a shutdown, the router declares and consumes again on a new channel from the
+	 * factory. Meanwhile, new requests fail immediately.
+	 * @param channelFactory Creates the channels. The clients that use the router publish
+	 * their requests via the channel.
+	 * @param excName Exchange name.
+	 * @param replyMode How responses are received.
+	 * @throws IOException Thrown if an error occurs.
+	 */
+	public ReplyRouter(IChannelFactory channelFactory, String excName, RequestResponseClient.ReplyMode replyMode)
+			throws IOException
+	{
+		this(channelFactory, excName, replyMode, new SequenceCorrelationIdStrategy());
+	}
+	
+	/**
+	 * Constructor. Use this to create a router that recovers from channel shutdowns.
+	 * @param channelFactory Creates the channels.
+	 * @param excName Exchange name.
+	 * @param replyMode How responses are received.
+	 * @param corrIdStrategy Strategy to generate correlation IDs.
+	 * @throws IOException Thrown if an error occurs.
+	 */
+	public ReplyRouter(IChannelFactory channelFactory, String excName, RequestResponseClient.ReplyMode replyMode,
+			ICorrelationIdStrategy corrIdStrategy)
+			throws IOException
+	{
+		super(channelFactory, excName, null, replyMode == RequestResponseClient.ReplyMode.DirectReplyTo,
+				null, true, 0, null);
+		
+		m_exchangeName = excName;
+		m_correlationIdStrategy = corrIdStrategy;
+	}
+	
+	/**
+	 * Whether the pending requests are sent again after recovery. The default is false.
+	 * @return True if replayed.
+	 */
+	public boolean getReplayOnRecovery()
+	{
+		return m_replayOnRecovery;
+	}
+	
+	/**
+	 * Sets what happens to the pending requests when the router starts to recover from
+	 * a channel shutdown. If false, they fail immediately with an IOException. If true, they
+	 * are sent again once the router has recovered, unless they time out first. Then, the
+	 * server may receive a request twice, so enable this only if the requests are idempotent.
+	 * This has no effect unless the router was created with a channel factory.
+	 * @param replay True to replay, false to fail.
+	 */
+	public void setReplayOnRecovery(boolean replay)
+	{
+		m_replayOnRecovery = replay;
+	}
+	
+	/**
+	 * Returns the metrics that measure the requests of the clients that use the router.
+	 * @return Metrics or null if not measured.
+	 */
+	public IMetrics getMetrics()
+	{
+		return m_metrics;
+	}
+	
+	/**
+	 * Sets the metrics that measure the requests of the clients that use the router.
+	 * Each request is measured by the metrics set when the request was sent. The default is null.
+	 * @param metrics Metrics, such as DefaultMetrics, or null to stop measuring.
+	 */
+	public void setMetrics(IMetrics metrics)
+	{
+		m_metrics = metrics;
+	}
+	
+	/**
+	 * Returns the exchange name.
+	 * @return Exchange name.
+	 */
+	String getExchangeName()
+	{
+		return m_exchangeName;
+	}
+	
+	/**
+	 * Returns the address where responses shall be sent.
+	 * @return "Reply to" address.
+	 */
+	String getReplyTo()
+	{
+		return getTopicName();
+	}
+	
+	/**
+	 * Returns the sequence number for the next request.
+	 * @return Sequence number.
+	 */
+	long nextSequence()
+	{
+		return m_correlationSequence.incrementAndGet();
+	}
+	
+	/**
+	 * Creates the correlation ID of a request.
+	 * @param sequence Sequence number from nextSequence.
+	 * @return Correlation ID.
+	 */
+	String createCorrelationId(long sequence)
+	{
+		return m_correlationIdStrategy.createCorrelationId(sequence);
+	}
+	
+	/**
+	 * Registers a pending request. Call this before sending the request so that
+	 * even a quick response will find its receiver. However the request completes
+	 * (response, timeout, failure or cancellation), it is then removed from pending
+	 * requests, and any late response to it will be ignored.
+	 * @param sequence Sequence number of the request.
+	 * @param routingKey The topic to send the request to.
+	 * @param props Request properties.
+	 * @param message Request message.
+	 * @return Future to be completed when the response arrives.
+	 * @throws IOException Thrown if the object is in an unusable state.
+	 */
+	PendingRequest addPendingRequest(long sequence, String routingKey, BasicProperties props, byte[] message)
+			throws IOException
+	{
+		expectConsumerIsActive();
+		
+		IMetrics metrics = m_metrics;
+		
+		if (metrics != null)
+		{
+			metrics.requestSent(routingKey);
+		}
+		
+		PendingRequest request = new PendingRequest(this, sequence, routingKey, props, message, metrics);
+		m_pendingRequests.put(sequence, request);
+		return request;
+	}
+	
+	/**
+	 * Sends a pending request. If sending fails, the request fails.
+	 * @param request Request returned by addPendingRequest.
+	 * @throws IOException Thrown if the object is in an unusable state.
+	 */
+	void send(PendingRequest request)
+			throws IOException
+	{
+		getTransport().publish(m_exchangeName, request.m_routingKey, request.m_props, request.m_message, request);
+	}
+	
+	/**
+	 * Starts the timeout of a pending request. Call this once the request has been sent.
+	 * @param request Request returned by addPendingRequest.
+	 * @param timeout Timeout in milliseconds.
+	 */
+	void startTimeout(PendingRequest request, long timeout)
+	{
+		request.m_timeout = TIMEOUT_TIMER.newTimeout(request, timeout, TimeUnit.MILLISECONDS);
+		
+		// In case the request completed while the timeout was being set
+		if (request.isDone())
+		{
+			request.m_timeout.cancel();
+		}
+	}
+	
+	@Override
+	protected void handleDeliveryImpl(long deliveryTag, BasicProperties properties, byte[] body)
+	{
+		// A message has arrived in the "reply to" queue!
+		
+		String correlationId = properties.getCorrelationId();
+		
+		// If the correlation ID is not recognised, the lookup will fail
+		long sequence = correlationId == null ? -1 : m_correlationIdStrategy.parseSequence(correlationId);
+		PendingRequest future = sequence < 0 ? null : m_pendingRequests.remove(sequence);
+		
+		if (future == null)
+		{
+			// Unexpected or no correlation ID! Possibly, the request has already timed out.
+			IMetrics metrics = m_metrics;
+			
+			if (metrics != null)
+			{
+				metrics.unexpectedCorrelationId();
+			}
+			
+			return;
+		}
+		
+		// The server may have rejected the request
+		if (MessageHeaders.STATUS_OVERLOADED.equals(MessageHeaders.getString(properties, MessageHeaders.STATUS)))
+		{
+			future.completeExceptionally(new ServerOverloadedException("The server is overloaded"));
+			return;
+		}
+		
+		// This will trigger whoever is waiting for the response
+		future.complete(body);
+	}
+	
+	@Override
+	protected void handleConsumerInactive(String reason)
+	{
+		// No response can arrive anymore -> no reason to wait for the timeouts
+		failPendingRequests("The object has become unusable. Reason: " + reason);
+	}
+	
+	@Override
+	protected void handleRecoveryStarted(String reason)
+	{
+		if (!m_replayOnRecovery)
+		{
+			failPendingRequests("The channel has shut down: " + reason);
+		}
+	}
+	
+	@Override
+	protected void handleRecoveryCompleted()
+	{
+		// Any pending requests remain because of replay
+		for (PendingRequest request : m_pendingRequests.values())
+		{
+			try
+			{
+				send(request);
+			}
+			catch (IOException e)
+			{
+				request.completeExceptionally(e);
+			}
+		}
+	}
+	
+	private void failPendingRequests(String reason)
+	{
+		for (PendingRequest future : m_pendingRequests.values())
+		{
+			future.completeExceptionally(new IOException(reason));
+		}
+	}
+	
+	private static ThreadPoolExecutor createTimeoutExecutor()
+	{
+		// The futures wait in an unbounded queue; the threads end once idle
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(TIMEOUT_THREAD_COUNT, TIMEOUT_THREAD_COUNT,
+				10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable ->
+		{
+			// Daemon thread -> does not prevent the application from exiting
+			Thread thread = new Thread(runnable, "ReplyRouter-timeout-completion");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
+	/**
+	 * A request that awaits a response. This is also the task to run on timeout.
+	 */
+	static final class PendingRequest extends CompletableFuture<byte[]>
+		implements Runnable, ITransport.IFailureHandler
+	{
+		private final ReplyRouter m_router;
+		private final long m_sequence;
+		
+		// The request is retained in case it must be sent again
+		private final String m_routingKey;
+		private final BasicProperties m_props;
+		private final byte[] m_message;
+		
+		// Set once the request has been sent
+		private volatile HashedWheelTimer.Timeout m_timeout = null;
+		
+		// Null if the request is not measured
+		private final IMetrics m_metrics;
+		private final long m_startNanos;
+		
+		
+		private PendingRequest(ReplyRouter router, long sequence, String routingKey, BasicProperties props,
+				byte[] message, IMetrics metrics)
+		{
+			m_router = router;
+			m_sequence = sequence;
+			m_routingKey = routingKey;
+			m_props = props;
+			m_message = message;
+			m_metrics = metrics;
+			m_startNanos = metrics == null ? 0 : System.nanoTime();
+		}
+		
+		@Override
+		public void run()
+		{
+			// The timeout has expired. Completing outside the timer thread, because
+			// the dependent actions of the future run in the completing thread.
+			TIMEOUT_EXECUTOR.execute(() -> completeExceptionally(new TimeoutException("The request timed out")));
+		}
+		
+		@Override
+		public void publishFailed(Exception e)
+		{
+			completeExceptionally(new IOException("Failed to send the request: " + e.getMessage(), e));
+		}
+		
+		@Override
+		public boolean complete(byte[] value)
+		{
+			boolean retval = super.complete(value);
+			release(retval, IMetrics.ClientOutcome.Success);
+			return retval;
+		}
+		
+		@Override
+		public boolean completeExceptionally(Throwable ex)
+		{
+			boolean retval = super.completeExceptionally(ex);
+			
+			if (ex instanceof TimeoutException)
+			{
+				release(retval, IMetrics.ClientOutcome.Timeout);
+			}
+			else if (ex instanceof ServerOverloadedException)
+			{
+				release(retval, IMetrics.ClientOutcome.Overloaded);
+			}
+			else
+			{
+				release(retval, IMetrics.ClientOutcome.Failure);
+			}
+			
+			return retval;
+		}
+		
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning)
+		{
+			boolean retval = super.cancel(mayInterruptIfRunning);
+			release(retval, IMetrics.ClientOutcome.Cancelled);
+			return retval;
+		}
+		
+		private void release(boolean completed, IMetrics.ClientOutcome outcome)
+		{
+			if (!completed)
+			{
+				return; // Completed earlier
+			}
+			
+			if (m_metrics != null)
+			{
+				m_metrics.requestCompleted(m_routingKey, outcome, System.nanoTime() - m_startNanos);
+			}
+			
+			m_router.m_pendingRequests.remove(m_sequence);
+			
+			// Cancelling the timeout releases its memory before the deadline
+			HashedWheelTimer.Timeout timeout = m_timeout;
+			
+			if (timeout != null)
+			{
+				timeout.cancel();
+			}
+		}
+	}
+}
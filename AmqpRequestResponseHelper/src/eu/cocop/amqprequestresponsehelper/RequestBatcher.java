@@ -0,0 +1,294 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Gathers requests into batches. A batch is handed over once it has the maximum number
+ * of requests or once its first request has waited for the maximum delay, whichever
+ * comes first. A dedicated thread hands over the batches, either running the handler
+ * itself or submitting it to an executor. In an executor, at most the maximum concurrency
+ * of batches are handled at a time.
+ * 
+ * While a full batch is waiting to be handed over, or while the maximum number of queued
+ * requests is waiting, the caller of add waits. This stops the consumer from receiving
+ * more requests than the handler can keep up with.
+ * @author Petri Kannisto
+ */
+final class RequestBatcher
+{
+	private static final AtomicInteger THREAD_COUNTER = new AtomicInteger(0);
+	
+	private final int m_maxBatchSize;
+	private final long m_maxDelayNanos;
+	private final Executor m_executor;
+	private final int m_maxQueued;
+	private final Consumer<List<RequestReceivedEvent>> m_handler;
+	
+	// Limits the number of batches handled concurrently in the executor
+	private final Semaphore m_permits;
+	private final Thread m_thread;
+	
+	private final ReentrantLock m_lock = new ReentrantLock();
+	private final Condition m_notFull = m_lock.newCondition();
+	private final Condition m_notEmpty = m_lock.newCondition();
+	
+	// The batch being gathered
+	private ArrayList<RequestReceivedEvent> m_batch;
+	
+	// When the first request of the batch arrived (System.nanoTime)
+	private long m_batchStarted = 0;
+	
+	// The number of requests not yet handed over, including a batch waiting for a permit
+	private int m_queuedCount = 0;
+	
+	private boolean m_closed = false;
+	
+	
+	/**
+	 * Constructor.
+	 * @param maxBatchSize Maximum number of requests in a batch.
+	 * @param maxDelayMicros Maximum time in microseconds that a request waits for the batch to fill.
+	 * @param executor Executor to run the handler or null to run it in the thread of this object.
+	 * @param maxConcurrency Maximum number of batches handled concurrently. Applies only with an executor.
+	 * @param maxQueued Maximum number of requests waiting to be handed over. Applies only with an executor.
+	 * @param handler Handles each batch.
+	 */
+	RequestBatcher(int maxBatchSize, long maxDelayMicros, Executor executor, int maxConcurrency, int maxQueued,
+			Consumer<List<RequestReceivedEvent>> handler)
+	{
+		m_maxBatchSize = maxBatchSize;
+		m_maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+		m_executor = executor;
+		m_maxQueued = executor == null ? Integer.MAX_VALUE : maxQueued;
+		m_permits = executor == null ? null : new Semaphore(maxConcurrency);
+		m_handler = handler;
+		m_batch = new ArrayList<>(maxBatchSize);
+		
+		// Daemon thread -> does not prevent the application from exiting
+		m_thread = new Thread(this::run, "RequestBatcher-" + THREAD_COUNTER.incrementAndGet());
+		m_thread.setDaemon(true);
+		m_thread.start();
+	}
+	
+	/**
+	 * Adds a request to the batch. If the batch is full or the maximum number of requests
+	 * is queued, waits until there is room.
+	 * @param item Request.
+	 * @return True if added, false if the object has been closed.
+	 * @throws InterruptedException Thrown if interrupted while waiting.
+	 */
+	boolean add(RequestReceivedEvent item) throws InterruptedException
+	{
+		m_lock.lockInterruptibly();
+		
+		try
+		{
+			while (!m_closed && (m_batch.size() >= m_maxBatchSize || m_queuedCount >= m_maxQueued))
+			{
+				m_notFull.await();
+			}
+			
+			if (m_closed)
+			{
+				return false;
+			}
+			
+			m_batch.add(item);
+			++m_queuedCount;
+			
+			if (m_batch.size() == 1)
+			{
+				m_batchStarted = System.nanoTime();
+				m_notEmpty.signal();
+			}
+			else if (isBatchComplete())
+			{
+				m_notEmpty.signal();
+			}
+			
+			return true;
+		}
+		finally
+		{
+			m_lock.unlock();
+		}
+	}
+	
+	/**
+	 * Closes the object. The thread stops, and no batch is handed over anymore.
+	 * @return The requests that were waiting in the batch.
+	 */
+	List<RequestReceivedEvent> close()
+	{
+		m_lock.lock();
+		
+		try
+		{
+			m_closed = true;
+			m_notEmpty.signal();
+			m_notFull.signalAll();
+			
+			List<RequestReceivedEvent> retval = m_batch;
+			m_batch = new ArrayList<>(0);
+			m_queuedCount -= retval.size();
+			return retval;
+		}
+		finally
+		{
+			m_lock.unlock();
+		}
+	}
+	
+	private void run()
+	{
+		while (true)
+		{
+			List<RequestReceivedEvent> batch = null;
+			
+			try
+			{
+				batch = takeBatch();
+			}
+			catch (InterruptedException e)
+			{
+				return; // Nobody interrupts this thread, though
+			}
+			
+			if (batch == null)
+			{
+				return; // Closed
+			}
+			
+			handOver(batch);
+		}
+	}
+	
+	private List<RequestReceivedEvent> takeBatch() throws InterruptedException
+	{
+		m_lock.lock();
+		
+		try
+		{
+			while (true)
+			{
+				if (m_closed)
+				{
+					return null;
+				}
+				
+				if (m_batch.isEmpty())
+				{
+					m_notEmpty.await();
+					continue;
+				}
+				
+				long remaining = m_batchStarted + m_maxDelayNanos - System.nanoTime();
+				
+				if (!isBatchComplete() && remaining > 0)
+				{
+					// Waiting for the batch to fill or the delay to pass
+					m_notEmpty.awaitNanos(remaining);
+					continue;
+				}
+				
+				ArrayList<RequestReceivedEvent> retval = m_batch;
+				m_batch = new ArrayList<>(m_maxBatchSize);
+				m_notFull.signalAll();
+				return retval;
+			}
+		}
+		finally
+		{
+			m_lock.unlock();
+		}
+	}
+	
+	private boolean isBatchComplete()
+	{
+		// If the queue is full, no more requests can arrive to fill the batch
+		return m_batch.size() >= m_maxBatchSize || m_queuedCount >= m_maxQueued;
+	}
+	
+	private void handOver(List<RequestReceivedEvent> batch)
+	{
+		if (m_executor == null)
+		{
+			batchTaken(batch);
+			runHandler(batch);
+			return;
+		}
+		
+		// Waiting until a running batch completes if the concurrency is at its maximum.
+		// Meanwhile, the next batch gathers until the queue is full.
+		m_permits.acquireUninterruptibly();
+		batchTaken(batch);
+		
+		try
+		{
+			m_executor.execute(() -> runHandlerAndRelease(batch));
+		}
+		catch (RejectedExecutionException e)
+		{
+			// The executor does not accept more work (e.g., it has been shut down).
+			// Running the handler here so that the requests are completed anyway.
+			runHandlerAndRelease(batch);
+		}
+	}
+	
+	private void batchTaken(List<RequestReceivedEvent> batch)
+	{
+		m_lock.lock();
+		
+		try
+		{
+			m_queuedCount -= batch.size();
+			m_notFull.signalAll();
+		}
+		finally
+		{
+			m_lock.unlock();
+		}
+	}
+	
+	private void runHandlerAndRelease(List<RequestReceivedEvent> batch)
+	{
+		try
+		{
+			runHandler(batch);
+		}
+		finally
+		{
+			m_permits.release();
+		}
+	}
+	
+	private void runHandler(List<RequestReceivedEvent> batch)
+	{
+		try
+		{
+			m_handler.accept(batch);
+		}
+		catch (Exception e)
+		{} // No can do
+	}
+}
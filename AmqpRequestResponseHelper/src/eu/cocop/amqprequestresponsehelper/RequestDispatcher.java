@@ -0,0 +1,199 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Runs the handling of requests in an executor with bounded concurrency. The requests wait
+ * in a bounded queue, and at most the maximum concurrency of worker tasks run in the executor
+ * at a time, each of which handles queued requests until the queue is empty.
+ * 
+ * The queued requests are handled in the order of priority and then earliest deadline
+ * first. Requests without a deadline come after those with one, and otherwise equal
+ * requests are handled in the order of arrival. After an overload, this serves first
+ * the requests whose clients are still waiting, and the expired requests can be
+ * dropped without handling.
+ * @author Petri Kannisto
+ */
+final class RequestDispatcher
+{
+	private final Executor m_executor;
+	private final int m_maxConcurrency;
+	private final int m_maxQueued;
+	private final Consumer<RequestReceivedEvent> m_handler;
+	
+	// Created once to avoid allocating a task object for each worker
+	private final Runnable m_worker = this::runWorker;
+	
+	private final ReentrantLock m_lock = new ReentrantLock();
+	private final Condition m_notFull = m_lock.newCondition();
+	private final PriorityQueue<RequestReceivedEvent> m_queue;
+	private int m_activeWorkers = 0;
+	
+	// Incremented for each request to keep the order of arrival among equal requests
+	private long m_sequence = 0;
+	
+	
+	/**
+	 * Constructor.
+	 * @param executor Executor to run the work.
+	 * @param maxConcurrency Maximum number of requests to handle concurrently.
+	 * @param maxQueued Maximum number of requests waiting in the queue.
+	 * @param handler Handles each request.
+	 */
+	RequestDispatcher(Executor executor, int maxConcurrency, int maxQueued, Consumer<RequestReceivedEvent> handler)
+	{
+		m_executor = executor;
+		m_maxConcurrency = maxConcurrency;
+		m_maxQueued = maxQueued;
+		m_handler = handler;
+		m_queue = new PriorityQueue<>(Math.min(maxQueued, 1024), createComparator());
+	}
+	
+	/**
+	 * Queues a request. If the queue is full, waits until there is room.
+	 * @param item Request.
+	 * @throws InterruptedException Thrown if interrupted while waiting.
+	 * @throws RejectedExecutionException Thrown if the executor rejects the work and the request
+	 * has not been taken by a worker. The request has then been dropped from the queue.
+	 */
+	void dispatch(RequestReceivedEvent item) throws InterruptedException
+	{
+		boolean startWorker = false;
+		
+		m_lock.lockInterruptibly();
+		
+		try
+		{
+			while (m_queue.size() >= m_maxQueued)
+			{
+				m_notFull.await();
+			}
+			
+			item.m_dispatchSequence = ++m_sequence;
+			m_queue.add(item);
+			
+			if (m_activeWorkers < m_maxConcurrency)
+			{
+				++m_activeWorkers;
+				startWorker = true;
+			}
+		}
+		finally
+		{
+			m_lock.unlock();
+		}
+		
+		if (startWorker)
+		{
+			try
+			{
+				m_executor.execute(m_worker);
+			}
+			catch (RejectedExecutionException e)
+			{
+				// The executor does not accept more work (e.g., it has been shut down)
+				boolean removed = false;
+				m_lock.lock();
+				
+				try
+				{
+					--m_activeWorkers;
+					
+					// The item is dropped unless a worker has taken it already
+					removed = m_queue.remove(item);
+					
+					if (removed)
+					{
+						m_notFull.signal();
+					}
+				}
+				finally
+				{
+					m_lock.unlock();
+				}
+				
+				// If a worker has taken the item, the worker owns it, and the
+				// caller must not reject it as well
+				if (removed)
+				{
+					throw e;
+				}
+			}
+		}
+	}
+	
+	private static Comparator<RequestReceivedEvent> createComparator()
+	{
+		return (a, b) ->
+		{
+			// Higher priority -> first
+			if (a.getPriority() != b.getPriority())
+			{
+				return a.getPriority() > b.getPriority() ? -1 : 1;
+			}
+			
+			// No deadline (0) -> last
+			long deadlineA = a.getDeadline() > 0 ? a.getDeadline() : Long.MAX_VALUE;
+			long deadlineB = b.getDeadline() > 0 ? b.getDeadline() : Long.MAX_VALUE;
+			
+			if (deadlineA != deadlineB)
+			{
+				return deadlineA < deadlineB ? -1 : 1;
+			}
+			
+			return Long.compare(a.m_dispatchSequence, b.m_dispatchSequence);
+		};
+	}
+	
+	private void runWorker()
+	{
+		while (true)
+		{
+			RequestReceivedEvent item = null;
+			
+			m_lock.lock();
+			
+			try
+			{
+				item = m_queue.poll();
+				
+				if (item == null)
+				{
+					// Nothing to do -> the worker ends
+					--m_activeWorkers;
+					return;
+				}
+				
+				m_notFull.signal();
+			}
+			finally
+			{
+				m_lock.unlock();
+			}
+			
+			try
+			{
+				m_handler.accept(item);
+			}
+			catch (Exception e)
+			{} // No can do
+		}
+	}
+}
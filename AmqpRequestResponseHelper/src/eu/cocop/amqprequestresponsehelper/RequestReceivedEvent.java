@@ -7,10 +7,12 @@
 //
 // Author: Petri Kannisto, Tampere University, Finland
 // File created: 7/2018
-// Last modified: 3/2020
+// Last modified: 10/2026
 
 package eu.cocop.amqprequestresponsehelper;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 /**
  * Holds the event data of a received request.
  * @author Petri Kannisto
@@ -20,6 +22,35 @@ public class RequestReceivedEvent
 	private final String m_replyTo;
 	private final String m_correlationId;
 	private final byte[] m_message;
+	private final String m_operation;
+	private final long m_deadline;
+	private final int m_priority;
+	
+	// Delivery tag for manual acks; -1 if none
+	private final long m_deliveryTag;
+	
+	// The order of arrival; assigned by the dispatcher if any
+	long m_dispatchSequence = 0;
+	
+	// Whether the request counts against the admission limits of the server
+	boolean m_admitted = false;
+	
+	// The transport that delivered the request. The ack must go to that
+	// transport even if the server has recovered on another channel meanwhile.
+	ITransport m_ackTransport = null;
+	
+	// Whether the server measures the request, when the request arrived, and
+	// when its handler was called. The times are from System.nanoTime.
+	boolean m_measured = false;
+	long m_receivedNanos = 0;
+	boolean m_handlerCalled = false;
+	long m_handlerCalledNanos = 0;
+	
+	// Indicates whether the handling of the request has been completed
+	private volatile int m_completed = 0;
+	
+	private static final AtomicIntegerFieldUpdater<RequestReceivedEvent> COMPLETED_UPDATER =
+			AtomicIntegerFieldUpdater.newUpdater(RequestReceivedEvent.class, "m_completed");
 	
 	
 	/**
@@ -29,10 +60,30 @@ public class RequestReceivedEvent
 	 * @param msg The received message.
 	 */
 	public RequestReceivedEvent(String repl, String corrId, byte[] msg)
+	{
+		this(repl, corrId, msg, null, 0, 0, -1);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param repl "Reply to" reference.
+	 * @param corrId Correlation ID.
+	 * @param msg The received message.
+	 * @param operation The requested operation or null if none.
+	 * @param deadline Deadline in milliseconds since the Unix epoch or 0 if none.
+	 * @param priority Priority; 0 is the lowest.
+	 * @param deliveryTag Delivery tag or -1 if none.
+	 */
+	RequestReceivedEvent(String repl, String corrId, byte[] msg, String operation, long deadline, int priority,
+			long deliveryTag)
 	{
 		m_replyTo = repl;
 		m_correlationId = corrId;
 		m_message = msg;
+		m_operation = operation;
+		m_deadline = deadline;
+		m_priority = priority;
+		m_deliveryTag = deliveryTag;
 	}
 
 	/**
@@ -61,4 +112,59 @@ public class RequestReceivedEvent
 	{
 		return m_message;
 	}
+	
+	/**
+	 * The requested operation.
+	 * @return The requested operation or null if the client specified none.
+	 */
+	public String getOperation()
+	{
+		return m_operation;
+	}
+	
+	/**
+	 * The deadline of the request. After the deadline, the client is no longer waiting for the response.
+	 * @return Deadline in milliseconds since the Unix epoch or 0 if the client specified none.
+	 */
+	public long getDeadline()
+	{
+		return m_deadline;
+	}
+	
+	/**
+	 * The priority of the request.
+	 * @return Priority; 0 is the lowest.
+	 */
+	public int getPriority()
+	{
+		return m_priority;
+	}
+	
+	/**
+	 * Whether the deadline of the request has passed.
+	 * @param now Current time in milliseconds since the Unix epoch.
+	 * @return True if expired.
+	 */
+	boolean isExpired(long now)
+	{
+		return m_deadline > 0 && now > m_deadline;
+	}
+	
+	/**
+	 * Delivery tag.
+	 * @return Delivery tag or -1 if none.
+	 */
+	long getDeliveryTag()
+	{
+		return m_deliveryTag;
+	}
+	
+	/**
+	 * Marks the handling of the request completed.
+	 * @return True if this call completed the request, false if it was completed already.
+	 */
+	boolean markCompleted()
+	{
+		return COMPLETED_UPDATER.compareAndSet(this, 0, 1);
+	}
 }
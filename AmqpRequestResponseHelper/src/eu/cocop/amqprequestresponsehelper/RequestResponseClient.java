@@ -7,40 +7,71 @@
 //
 // Author: Petri Kannisto, Tampere University, Finland
 // File created: 7/2018
-// Last modified: 3/2020
+// Last modified: 10/2026
 
 package eu.cocop.amqprequestresponsehelper;
 
 import java.io.IOException;
-import java.util.UUID;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.AMQP.BasicProperties;
 
 /**
- * A helper class to implement a request-response client for AMQP. This class *does not* recover from 
- * a connection loss or channel shutdown. In such a situation, you must re-create each client object.
+ * A helper class to implement a request-response client for AMQP. If created with a channel, this class
+ * *does not* recover from a connection loss or channel shutdown. In such a situation, you must re-create
+ * each client object. If created with a channel factory, the client recovers by itself.
+ * 
+ * The object supports concurrent requests. That is, any number of threads can
+ * perform requests with the same object at the same time.
+ * 
+ * By default, each client has a reply queue and consumer of its own. If you create many
+ * clients, consider sharing a ReplyRouter between them.
  * @author Petri Kannisto
  */
-public class RequestResponseClient extends ConsumerHolderBase
+public class RequestResponseClient
 {
-	private final Channel m_channel;
+	/**
+	 * Specifies how the client receives responses.
+	 * @author Petri Kannisto
+	 */
+	public enum ReplyMode
+	{
+		/**
+		 * The client declares a reply queue of its own and binds it to a generated topic.
+		 * This requires multiple round trips to the broker when the object is created.
+		 */
+		ReplyQueue,
+		/**
+		 * The client consumes the direct reply-to pseudo-queue of RabbitMQ. No exchange,
+		 * queue or binding is declared, which makes the creation of the object fast.
+		 * The exchange must already exist, which is typically the case once the server has
+		 * started. The server must respond via the default exchange; RequestResponseServer
+		 * does this automatically. See https://www.rabbitmq.com/direct-reply-to.html
+		 */
+		DirectReplyTo
+	}
+	
+	// The maximum expiration in milliseconds that the broker accepts (2^32-1)
+	private static final long MAX_EXPIRATION = 4294967295L;
+	
 	private final String m_exchangeName;
 	private final String m_targetName;
-    
-    // This queue will block execution until a message arrives
-    private final BlockingQueue<byte[]> m_responseQueue = new ArrayBlockingQueue<byte[]>(1);
-    
-    // Correlation ID enables the association of a response to a particular request
-    private String m_currentCorrelationId = "";
-    
-    // Because of server-generated events, there could be thread sync issues without
-    // appropriate synchronisation
-    private final Object m_lockObject = new Object();
+	
+	// Receives the responses and associates them with pending requests
+	private final ReplyRouter m_replyRouter;
+	
+	// Whether the reply router was created by this object
+	private final boolean m_ownsReplyRouter;
+	
+	// The priority of the requests; 0 is the lowest
+	private volatile int m_priority = 0;
     
 	
 	/**
@@ -53,87 +84,447 @@ public class RequestResponseClient extends ConsumerHolderBase
 	public RequestResponseClient(Channel channel, String excName, String tgtName)
 			throws IOException
 	{
-		super(channel, excName);
+		this(channel, excName, tgtName, ReplyMode.ReplyQueue);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param channel Channel.
+	 * @param excName Exchange name.
+	 * @param tgtName Target topic name.
+	 * @param replyMode How responses are received.
+	 * @throws IOException Thrown if an error occurs.
+	 */
+	public RequestResponseClient(Channel channel, String excName, String tgtName, ReplyMode replyMode)
+			throws IOException
+	{
+		this(new ReplyRouter(channel, excName, replyMode), tgtName, true);
+	}
+	
+	/**
+	 * Constructor. Use this to create a client that recovers from channel shutdowns.
+	 * The client creates a reply router that recovers (see ReplyRouter). While the router
+	 * is recovering, requests fail immediately.
+	 * @param channelFactory Creates the channels.
+	 * @param excName Exchange name.
+	 * @param tgtName Target topic name.
+	 * @param replyMode How responses are received.
+	 * @throws IOException Thrown if an error occurs.
+	 */
+	public RequestResponseClient(IChannelFactory channelFactory, String excName, String tgtName, ReplyMode replyMode)
+			throws IOException
+	{
+		this(new ReplyRouter(channelFactory, excName, replyMode), tgtName, true);
+	}
+	
+	/**
+	 * Constructor. Use this to communicate via a transport, such as one of LoopbackBroker.
+	 * Closing the client does not close the transport.
+	 * @param transport Transport.
+	 * @param excName Exchange name.
+	 * @param tgtName Target topic name.
+	 * @param replyMode How responses are received.
+	 * @throws IOException Thrown if an error occurs.
+	 */
+	public RequestResponseClient(ITransport transport, String excName, String tgtName, ReplyMode replyMode)
+			throws IOException
+	{
+		this(new ReplyRouter(transport, excName, replyMode), tgtName, true);
+	}
+	
+	/**
+	 * Constructor. Use this to share a reply router between multiple clients.
+	 * This constructor performs no communication with the broker. The requests
+	 * are sent via the transport and exchange of the router.
+	 * @param router Reply router. Closing the client does not close the router.
+	 * @param tgtName Target topic name.
+	 */
+	public RequestResponseClient(ReplyRouter router, String tgtName)
+	{
+		this(router, tgtName, false);
+	}
+	
+	private RequestResponseClient(ReplyRouter router, String tgtName, boolean ownsRouter)
+	{
+		m_replyRouter = router;
+		m_ownsReplyRouter = ownsRouter;
+		m_exchangeName = router.getExchangeName();
+		m_targetName = tgtName;
+	}
+	
+	/**
+	 * The priority of the requests sent by this object.
+	 * @return Priority; 0 is the lowest.
+	 */
+	public int getPriority()
+	{
+		return m_priority;
+	}
+	
+	/**
+	 * Sets the priority of the requests sent by this object. The priority is sent in the
+	 * AMQP priority property. It only takes effect if the server has a maximum priority
+	 * (see ServerOptions.setMaxPriority); otherwise, the requests are handled in the order
+	 * of arrival. To send requests of different priority classes, create a client for each
+	 * class. The clients can share a ReplyRouter.
+	 * @param priority Priority from 0 to 255; 0 is the lowest.
+	 */
+	public void setPriority(int priority)
+	{
+		if (priority < 0 || priority > 255)
+		{
+			throw new IllegalArgumentException("Priority must be from 0 to 255");
+		}
 		
-		m_channel = channel;
-		m_exchangeName = excName;
-    	m_targetName = tgtName;
+		m_priority = priority;
+	}
+	
+	/**
+	 * Returns the reply router of the client.
+	 * @return Reply router.
+	 */
+	public ReplyRouter getReplyRouter()
+	{
+		return m_replyRouter;
+	}
+	
+	/**
+	 * Closes the object. If the object has a reply router of its own,
+	 * the router is closed, and any pending requests fail.
+	 */
+	public void close()
+	{
+		if (m_ownsReplyRouter)
+		{
+			m_replyRouter.close();
+		}
 	}
 	
 	/**
 	 * Performs a request in the synchronous (blocking) fashion.
 	 * 
-	 * Please note that this class does not support concurrent requests.
-	 * That is, when a request has been sent and a response is awaited,
-	 * it is not possible to send another request before the response arrives 
-	 * for the first request. Therefore, to execute requests concurrently, 
-	 * create multiple instances of this class.
+	 * This method can be called from multiple threads concurrently. Each
+	 * response is delivered to the caller that sent the related request.
 	 * @param message Message to be sent.
 	 * @param timeout Timeout value in milliseconds.
 	 * @return Response.
-	 * @throws IOException Thrown if an error occurs.
+	 * @throws IOException Thrown if an error occurs. ServerOverloadedException if the server rejected the request.
 	 * @throws InterruptedException Thrown if the operation is interrupted.
 	 * @throws TimeoutException Thrown if a timeout occurs while waiting for response.
 	 */
 	public byte[] performRequest(byte[] message, long timeout)
 			throws IOException, InterruptedException, TimeoutException
 	{
-		expectConsumerIsActive();
+		return performRequest(null, message, timeout);
+	}
+	
+	/**
+	 * Performs a request of an operation in the synchronous (blocking) fashion. The server routes
+	 * the request to the handler of the operation (see RequestResponseServer.setOperationHandler).
+	 * 
+	 * This method can be called from multiple threads concurrently.
+	 * @param operation Operation name or null if none.
+	 * @param message Message to be sent.
+	 * @param timeout Timeout value in milliseconds.
+	 * @return Response.
+	 * @throws IOException Thrown if an error occurs. ServerOverloadedException if the server rejected the request.
+	 * @throws InterruptedException Thrown if the operation is interrupted.
+	 * @throws TimeoutException Thrown if a timeout occurs while waiting for response.
+	 */
+	public byte[] performRequest(String operation, byte[] message, long timeout)
+			throws IOException, InterruptedException, TimeoutException
+	{
+		return waitForResponse(performRequestAsync(operation, message, timeout));
+	}
+	
+	/**
+	 * Performs a request in the asynchronous (non-blocking) fashion. The request is
+	 * sent before this method returns, whereas the returned future completes when
+	 * the response arrives. If the response does not arrive in time, the future
+	 * completes exceptionally with a TimeoutException.
+	 * 
+	 * Please note that the future is completed in a thread of the AMQP client library.
+	 * Therefore, any non-async dependent action of the future should execute quickly,
+	 * because it will otherwise delay the delivery of other responses. A timed-out future
+	 * is completed in one of the few threads of this library that complete the timed-out
+	 * futures of every client, so a slow action delays other timeouts as well.
+	 * 
+	 * This method can be called from multiple threads concurrently.
+	 * @param message Message to be sent.
+	 * @param timeout Timeout value in milliseconds.
+	 * @return Future to receive the response. If sending fails, the future completes
+	 * exceptionally with an IOException.
+	 * @throws IOException Thrown if the object is in an unusable state.
+	 */
+	public CompletableFuture<byte[]> performRequestAsync(byte[] message, long timeout)
+			throws IOException
+	{
+		return performRequestAsync(null, message, timeout);
+	}
+	
+	/**
+	 * Performs a request of an operation in the asynchronous (non-blocking) fashion. The server
+	 * routes the request to the handler of the operation. Otherwise, this is similar to
+	 * performRequestAsync without an operation.
+	 * @param operation Operation name or null if none.
+	 * @param message Message to be sent.
+	 * @param timeout Timeout value in milliseconds.
+	 * @return Future to receive the response. If sending fails, the future completes
+	 * exceptionally with an IOException.
+	 * @throws IOException Thrown if the object is in an unusable state.
+	 */
+	public CompletableFuture<byte[]> performRequestAsync(String operation, byte[] message, long timeout)
+			throws IOException
+	{
+		ReplyRouter.PendingRequest future = sendRequest(operation, message, timeout);
+		m_replyRouter.startTimeout(future, timeout);
+		return future;
+	}
+	
+	/**
+	 * Performs a batch of requests in the synchronous (blocking) fashion. All requests
+	 * are sent back-to-back before any response is awaited, which makes this
+	 * much faster than performing the requests one at a time.
+	 * 
+	 * This method can be called from multiple threads concurrently.
+	 * @param messages Messages to be sent.
+	 * @param timeout Timeout value in milliseconds. This applies to the whole batch.
+	 * @return Responses in the same order as the messages.
+	 * @throws IOException Thrown if an error occurs. ServerOverloadedException if the server rejected any request.
+	 * @throws InterruptedException Thrown if the operation is interrupted.
+	 * @throws TimeoutException Thrown if any response fails to arrive in time.
+	 */
+	public List<byte[]> performRequests(List<byte[]> messages, long timeout)
+			throws IOException, InterruptedException, TimeoutException
+	{
+		return performRequests(null, messages, timeout);
+	}
+	
+	/**
+	 * Performs a batch of requests of an operation in the synchronous (blocking) fashion.
+	 * Otherwise, this is similar to performRequests without an operation.
+	 * @param operation Operation name or null if none.
+	 * @param messages Messages to be sent.
+	 * @param timeout Timeout value in milliseconds. This applies to the whole batch.
+	 * @return Responses in the same order as the messages.
+	 * @throws IOException Thrown if an error occurs. ServerOverloadedException if the server rejected any request.
+	 * @throws InterruptedException Thrown if the operation is interrupted.
+	 * @throws TimeoutException Thrown if any response fails to arrive in time.
+	 */
+	public List<byte[]> performRequests(String operation, List<byte[]> messages, long timeout)
+			throws IOException, InterruptedException, TimeoutException
+	{
+		return waitForResponse(performRequestsAsync(operation, messages, timeout));
+	}
+	
+	/**
+	 * Performs a batch of requests in the asynchronous (non-blocking) fashion. All requests
+	 * are sent back-to-back before this method returns, whereas the returned future
+	 * completes when all responses have arrived. If any request fails or any response does
+	 * not arrive in time, the future completes exceptionally, and the remaining requests
+	 * of the batch are abandoned.
+	 * 
+	 * Please see performRequestAsync about the thread that completes the future.
+	 * This method can be called from multiple threads concurrently.
+	 * @param messages Messages to be sent.
+	 * @param timeout Timeout value in milliseconds. This applies to the whole batch.
+	 * @return Future to receive the responses in the same order as the messages.
+	 * @throws IOException Thrown if the object is in an unusable state. In this case,
+	 * any requests of the batch that were sent already are abandoned.
+	 */
+	public CompletableFuture<List<byte[]>> performRequestsAsync(List<byte[]> messages, long timeout)
+			throws IOException
+	{
+		return performRequestsAsync(null, messages, timeout);
+	}
+	
+	/**
+	 * Performs a batch of requests of an operation in the asynchronous (non-blocking) fashion.
+	 * Otherwise, this is similar to performRequestsAsync without an operation.
+	 * @param operation Operation name or null if none.
+	 * @param messages Messages to be sent.
+	 * @param timeout Timeout value in milliseconds. This applies to the whole batch.
+	 * @return Future to receive the responses in the same order as the messages.
+	 * @throws IOException Thrown if the object is in an unusable state. In this case,
+	 * any requests of the batch that were sent already are abandoned.
+	 */
+	public CompletableFuture<List<byte[]>> performRequestsAsync(String operation, List<byte[]> messages, long timeout)
+			throws IOException
+	{
+		final ArrayList<ReplyRouter.PendingRequest> futures = new ArrayList<>(messages.size());
 		
+		// Sending all requests before starting any timeouts
 		try
 		{
-			// Creating properties
-			BasicProperties props = null;
-			
-			synchronized (m_lockObject)
+			for (byte[] message : messages)
 			{
-				m_currentCorrelationId = UUID.randomUUID().toString();
-				
-				props = new BasicProperties
-		    			.Builder()
-		    			.correlationId(m_currentCorrelationId)
-		    			.replyTo(getTopicName())
-		    			.build();
+				futures.add(sendRequest(operation, message, timeout));
 			}
+		}
+		catch (IOException | RuntimeException e)
+		{
+			cancelAll(futures);
+			throw e;
+		}
+		
+		final CompletableFuture<List<byte[]>> result = new CompletableFuture<>();
+		final AtomicInteger remaining = new AtomicInteger(futures.size());
+		
+		if (futures.isEmpty())
+		{
+			result.complete(new ArrayList<byte[]>());
+			return result;
+		}
+		
+		for (ReplyRouter.PendingRequest future : futures)
+		{
+			m_replyRouter.startTimeout(future, timeout);
 			
-			// Sending the message
-			m_channel.basicPublish(m_exchangeName, m_targetName, props, message);
-			
-			// Waiting for response to arrive in the response queue...
-	        byte[] response = m_responseQueue.poll(timeout, TimeUnit.MILLISECONDS);
-	        
-	        if (response == null)
-	        {
-	        	// Timeout!
-	        	throw new TimeoutException("The request timed out");
-	        }
-	        
-	        return response;
+			future.whenComplete((response, exception) ->
+			{
+				if (exception != null)
+				{
+					// One failure fails the batch. No reason to wait for the rest.
+					if (result.completeExceptionally(exception))
+					{
+						cancelAll(futures);
+					}
+				}
+				else if (remaining.decrementAndGet() == 0)
+				{
+					// Every response has arrived
+					ArrayList<byte[]> responses = new ArrayList<>(futures.size());
+					
+					for (CompletableFuture<byte[]> f : futures)
+					{
+						responses.add(f.join());
+					}
+					
+					result.complete(responses);
+				}
+			});
 		}
-		finally
+		
+		// If the caller cancels the batch, the requests are abandoned
+		result.whenComplete((responses, exception) ->
 		{
-			synchronized (m_lockObject)
+			if (result.isCancelled())
 			{
-				m_currentCorrelationId = "";
+				cancelAll(futures);
 			}
+		});
+		
+		return result;
+	}
+	
+	private ReplyRouter.PendingRequest sendRequest(String operation, byte[] message, long timeout)
+			throws IOException
+	{
+		long sequence = m_replyRouter.nextSequence();
+		String correlationId = m_replyRouter.createCorrelationId(sequence);
+		BasicProperties props = createRequestProperties(correlationId, m_replyRouter.getReplyTo(), operation,
+				timeout, m_priority);
+		
+		// Registering the request before sending so that even a quick response
+		// will find its receiver
+		ReplyRouter.PendingRequest future = m_replyRouter.addPendingRequest(sequence, m_targetName, props, message);
+		
+		try
+		{
+			// Sending the message. If sending fails, the request fails.
+			m_replyRouter.send(future);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			// Cancelling removes the request from the pending requests
+			future.cancel(false);
+			throw e;
 		}
+		
+		return future;
 	}
 	
-	@Override
-	protected void handleDeliveryImpl(BasicProperties properties, byte[] body)
+	/**
+	 * Creates the properties of a request.
+	 * @param correlationId Correlation ID.
+	 * @param replyTo "Reply to" address.
+	 * @param operation Operation name or null if none.
+	 * @param timeout Timeout value in milliseconds.
+	 * @param priority Priority; 0 is the lowest.
+	 * @return Properties.
+	 */
+	static BasicProperties createRequestProperties(String correlationId, String replyTo, String operation,
+			long timeout, int priority)
 	{
-		// A message has arrived in the "reply to" queue!
+		// The deadline tells the server when the client stops waiting. Furthermore,
+		// the expiration makes the broker drop the request if it waits in the queue
+		// past the timeout. Both are omitted if the timeout is out of the range the
+		// broker accepts for expiration; then, the request never expires.
+		HashMap<String, Object> headers = new HashMap<>(4);
+		String expiration = null;
+		
+		if (timeout > 0 && timeout <= MAX_EXPIRATION)
+		{
+			long now = System.currentTimeMillis();
+			long deadline = timeout > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + timeout;
+			headers.put(MessageHeaders.DEADLINE, deadline);
+			expiration = Long.toString(timeout);
+		}
 		
-		synchronized (m_lockObject)
+		if (operation != null)
 		{
-			if (!properties.getCorrelationId().equals(m_currentCorrelationId))
+			headers.put(MessageHeaders.OPERATION, operation);
+		}
+		
+		return new BasicProperties
+    			.Builder()
+    			.correlationId(correlationId)
+    			.replyTo(replyTo)
+    			.expiration(expiration)
+    			.priority(priority > 0 ? priority : null)
+    			.headers(headers)
+    			.build();
+	}
+	
+	private static <T> T waitForResponse(CompletableFuture<T> future)
+			throws IOException, InterruptedException, TimeoutException
+	{
+		try
+		{
+			// Waiting for the response to arrive or the timeout to occur...
+			return future.get();
+		}
+		catch (InterruptedException e)
+		{
+			// Nobody will wait for the response anymore
+			future.cancel(false);
+			throw e;
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			
+			if (cause instanceof TimeoutException)
+			{
+				throw (TimeoutException)cause;
+			}
+			else if (cause instanceof IOException)
 			{
-				// Unexpected correlation ID!
-				return;
+				throw (IOException)cause;
+			}
+			else
+			{
+				throw new IOException("The request failed: " + cause.getMessage(), cause);
 			}
 		}
-		
-		// This will trigger any object waiting for content in the response queue
-		m_responseQueue.offer(body);
+	}
+	
+	private static void cancelAll(List<? extends CompletableFuture<byte[]>> futures)
+	{
+		// Cancelling removes each request from the pending requests
+		for (CompletableFuture<byte[]> future : futures)
+		{
+			future.cancel(false);
+		}
 	}
 }
@@ -7,30 +7,97 @@
 //
 // Author: Petri Kannisto, Tampere University, Finland
 // File created: 7/2018
-// Last modified: 3/2020
+// Last modified: 10/2026
 
 package eu.cocop.amqprequestresponsehelper;
 
 import java.io.IOException;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.rabbitmq.client.AMQP.BasicProperties;
 import com.rabbitmq.client.Channel;
 
 /**
- * A class that acts as a request-response server for an AMQP message bus. This class *does not* recover from 
- * a connection loss or channel shutdown. In such a situation, you must re-create each server object.
+ * A class that acts as a request-response server for an AMQP message bus. If created with a channel,
+ * this class *does not* recover from a connection loss or channel shutdown. In such a situation, you
+ * must re-create each server object. If created with a channel factory, the server recovers by itself
+ * on a new channel. With manual acks, the broker then delivers again the requests that were
+ * in flight during the shutdown, so a request can be handled twice.
+ * 
+ * There are two ways to receive requests. A request listener receives every request, whereas an
+ * operation handler receives only the requests of a particular operation (see setOperationHandler).
+ * If a request specifies an operation that has a handler, only that handler receives the request.
+ * Otherwise, the request goes to the listeners.
+ * 
+ * The server starts receiving once the first listener or handler is registered (see also
+ * ServerOptions.setManualStart and start). A shared work queue (see ServerOptions.setSharedWorkQueue)
+ * is declared in the constructor, so the requests wait there until then. Otherwise, the server
+ * queue is declared only when the server starts, and earlier requests reach no server.
+ * 
+ * A handler can also be asynchronous (see IAsyncRequestHandler). In that case, the server responds
+ * once the future returned by the handler completes. Alternatively, a batch handler specified in
+ * ServerOptions receives every request in batches (see IBatchRequestHandler).
+ * 
+ * By default, the listeners and handlers run in the consumer thread of the AMQP client library,
+ * one request at a time. To handle requests concurrently, specify an executor in ServerOptions.
+ * An asynchronous handler returns before the request is complete, so the maximum concurrency
+ * of the executor does not limit the requests in flight; ServerOptions.setMaxInFlightRequests does.
  * @author Petri Kannisto
  */
 public class RequestResponseServer extends ConsumerHolderBase
 {
-	private final Channel m_channel;
     private final String m_exchangeName;
-    private final HashSet<IRequestReceivedEventListener> m_eventListeners;
     
-    // Because of server-generated events, there could be thread sync issues without
-    // appropriate synchronisation
-    private final Object m_lockObject = new Object();
+    // The listeners. The array is never modified but replaced atomically whenever
+    // the listeners change, so each request can notify the listeners without locking or copying.
+    private final AtomicReference<IRequestReceivedEventListener[]> m_eventListeners =
+    		new AtomicReference<>(new IRequestReceivedEventListener[0]);
+    
+    // Operation handlers by operation name. Like the listeners, the map is immutable and
+    // replaced atomically whenever the handlers change. Synchronous handlers are adapted
+    // to the asynchronous interface.
+    private final AtomicReference<Map<String, IAsyncRequestHandler>> m_operationHandlers =
+    		new AtomicReference<>(Collections.<String, IAsyncRequestHandler>emptyMap());
+    
+    // Receives the requests that no operation handler receives; null if the listeners do
+    private volatile IAsyncRequestHandler m_asyncRequestHandler = null;
+    
+    // Runs the listeners if an executor has been specified; otherwise, null
+    private final RequestDispatcher m_dispatcher;
+    
+    // Whether each request is acknowledged once served
+    private final boolean m_manualAck;
+    
+    // Whether the requests whose deadline has passed are dropped
+    private final boolean m_dropExpiredRequests;
+    
+    // Maximum request priority; 0 if requests are not prioritised
+    private final int m_maxPriority;
+    
+    // Gathers the requests into batches if a batch handler has been specified; otherwise, null
+    private final RequestBatcher m_batcher;
+    private final IBatchRequestHandler m_batchRequestHandler;
+    
+    // Limits the requests in flight; null if there are no limits
+    private final AdmissionController m_admissionController;
+    
+    // Receives the measurements of the requests; null if not measured
+    private final IMetrics m_metrics;
+    
+    // Whether the server starts once the first listener or handler is registered
+    private final boolean m_autoStart;
+    
+    // The headers of the response sent when the server is overloaded
+    private static final Map<String, Object> OVERLOADED_HEADERS =
+    		Collections.<String, Object>singletonMap(MessageHeaders.STATUS, MessageHeaders.STATUS_OVERLOADED);
     
     
     /**
@@ -43,12 +110,145 @@ public class RequestResponseServer extends ConsumerHolderBase
     public RequestResponseServer(Channel channel, String excName, String servTopic)
     		throws IOException
     {
-    	// Create the server queue and pass its name to the superclass constructor
-    	super(channel, excName, servTopic);
+    	this(channel, excName, servTopic, new ServerOptions());
+    }
+    
+    /**
+     * Constructor.
+     * @param channel Channel.
+     * @param excName Exchange name.
+     * @param servTopic Server topic name.
+     * @param options Options.
+     * @throws IOException Thrown if an error occurs.
+     */
+    public RequestResponseServer(Channel channel, String excName, String servTopic, ServerOptions options)
+    		throws IOException
+    {
+    	this(new RabbitMqTransport(channel), true, null, excName, servTopic, options);
+    }
+    
+    /**
+     * Constructor. Use this to create a server that recovers from channel shutdowns.
+     * After a shutdown, the server declares and consumes again on a new channel from the factory.
+     * @param channelFactory Creates the channels.
+     * @param excName Exchange name.
+     * @param servTopic Server topic name.
+     * @param options Options.
+     * @throws IOException Thrown if an error occurs.
+     */
+    public RequestResponseServer(IChannelFactory channelFactory, String excName, String servTopic,
+    		ServerOptions options)
+    		throws IOException
+    {
+    	// A channel created by the factory is closed with the server
+    	this(new RabbitMqTransport(channelFactory.createChannel(), true), true, channelFactory,
+    			excName, servTopic, options);
+    }
+    
+    /**
+     * Constructor. Use this to serve via a transport, such as one of LoopbackBroker.
+     * Closing the server does not close the transport.
+     * @param transport Transport.
+     * @param excName Exchange name.
+     * @param servTopic Server topic name.
+     * @param options Options.
+     * @throws IOException Thrown if an error occurs.
+     */
+    public RequestResponseServer(ITransport transport, String excName, String servTopic, ServerOptions options)
+    		throws IOException
+    {
+    	this(transport, false, null, excName, servTopic, options);
+    }
+    
+    private RequestResponseServer(ITransport transport, boolean ownsTransport, IChannelFactory channelFactory,
+    		String excName, String servTopic, ServerOptions options)
+    		throws IOException
+    {
+    	// Pass the name of a shared work queue to the superclass constructor. Consuming
+    	// starts only once the options below have been applied and a receiver registered,
+    	// so that no request arrives before the server can handle it. A queue with a
+    	// generated name is declared only then, because the broker auto-deletes it only
+    	// once it has had a consumer.
+    	super(transport, ownsTransport, channelFactory, excName, servTopic, false,
+    			options.getSharedWorkQueue() ? getWorkQueueName(excName, servTopic) : null,
+    			!options.getManualAck(), options.getPrefetchCount(), createQueueArgs(options), false);
     	
-    	m_channel = channel;
     	m_exchangeName = excName;
-    	m_eventListeners = new HashSet<>();
+    	m_manualAck = options.getManualAck();
+    	m_dropExpiredRequests = options.getDropExpiredRequests();
+    	m_maxPriority = options.getMaxPriority();
+    	m_metrics = options.getMetrics();
+    	
+    	if (options.getMaxInFlightRequests() == 0 && options.getMaxInFlightBytes() == 0)
+    	{
+    		m_admissionController = null;
+    	}
+    	else
+    	{
+    		m_admissionController = new AdmissionController(
+    				options.getMaxInFlightRequests(), options.getMaxInFlightBytes());
+    	}
+    	
+    	m_batchRequestHandler = options.getBatchRequestHandler();
+    	
+    	if (m_batchRequestHandler == null)
+    	{
+    		m_batcher = null;
+    	}
+    	else
+    	{
+    		m_batcher = new RequestBatcher(options.getMaxBatchSize(), options.getMaxBatchDelayMicros(),
+    				options.getExecutor(), options.getMaxConcurrency(), options.getMaxQueuedRequests(),
+    				this::serveBatch);
+    	}
+    	
+    	if (options.getExecutor() == null || m_batcher != null)
+    	{
+    		m_dispatcher = null;
+    	}
+    	else
+    	{
+    		m_dispatcher = new RequestDispatcher(options.getExecutor(),
+    				options.getMaxConcurrency(), options.getMaxQueuedRequests(), this::serveRequest);
+    	}
+    	
+    	m_autoStart = !options.getManualStart();
+    	
+    	// The batch handler is ready already
+    	if (m_batcher != null && m_autoStart)
+    	{
+    		try
+    		{
+    			start();
+    		}
+    		catch (IOException e)
+    		{
+    			close();
+    			throw e;
+    		}
+    	}
+    }
+    
+    /**
+     * Starts receiving requests. Until then, the requests wait in a shared work queue,
+     * whereas a queue of this server only is declared now.
+     * Call this once the listeners and handlers have been registered if ServerOptions.setManualStart
+     * was set. Otherwise, the server starts by itself, and calling this has no effect.
+     * @throws IOException Thrown if an error occurs or the object is in an unusable state.
+     */
+    public void start() throws IOException
+    {
+    	startConsuming();
+    }
+    
+    @Override
+    public void close()
+    {
+    	super.close();
+    	
+    	// If the server never started, the superclass has not stopped the batcher.
+    	// Closing it again has no effect.
+    	handleConsumerInactive("User has closed the object");
     }
     
     /**
@@ -59,12 +259,27 @@ public class RequestResponseServer extends ConsumerHolderBase
     public void addRequestReceivedEventListener(IRequestReceivedEventListener lis)
     		throws IOException
     {
-    	expectConsumerIsActive();
+    	expectUsable();
     	
-    	synchronized (m_lockObject)
+    	while (true)
     	{
-    		m_eventListeners.add(lis);
-		}
+    		IRequestReceivedEventListener[] listeners = m_eventListeners.get();
+    		
+    		if (Arrays.asList(listeners).contains(lis))
+    		{
+    			break; // Already added
+    		}
+    		
+    		IRequestReceivedEventListener[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+    		updated[listeners.length] = lis;
+    		
+    		if (m_eventListeners.compareAndSet(listeners, updated))
+    		{
+    			break;
+    		}
+    	}
+    	
+    	startIfAutomatic();
     }
     
     /**
@@ -75,56 +290,515 @@ public class RequestResponseServer extends ConsumerHolderBase
     public void removeRequestReceivedEventListener(IRequestReceivedEventListener lis)
     		throws IOException
     {
-    	expectConsumerIsActive();
+    	expectUsable();
+    	
+    	while (true)
+    	{
+    		IRequestReceivedEventListener[] listeners = m_eventListeners.get();
+    		ArrayList<IRequestReceivedEventListener> updated = new ArrayList<>(Arrays.asList(listeners));
+    		
+    		if (!updated.remove(lis))
+    		{
+    			return; // Not added
+    		}
+    		
+    		if (m_eventListeners.compareAndSet(listeners, updated.toArray(new IRequestReceivedEventListener[0])))
+    		{
+    			return;
+    		}
+    	}
+    }
+    
+    /**
+     * Sets the handler of an operation. The handler receives each request that
+     * specifies the operation, and no other listener or handler receives such requests.
+     * Clients specify the operation with the overloads of RequestResponseClient that
+     * take an operation name (see also MessageHeaders.OPERATION).
+     * @param operation Operation name.
+     * @param handler Handler. Replaces any previous handler of the operation.
+     * @throws IOException Thrown if the object is in an unusable state.
+     */
+    public void setOperationHandler(String operation, IRequestReceivedEventListener handler)
+    		throws IOException
+    {
+    	// The request is complete once the handler returns
+    	setAsyncOperationHandler(operation, ev ->
+    	{
+    		handler.requestReceived(this, ev);
+    		return null;
+    	});
+    }
+    
+    /**
+     * Sets an asynchronous handler of an operation. Otherwise, this works like setOperationHandler.
+     * @param operation Operation name.
+     * @param handler Handler. Replaces any previous handler of the operation.
+     * @throws IOException Thrown if the object is in an unusable state.
+     */
+    public void setAsyncOperationHandler(String operation, IAsyncRequestHandler handler)
+    		throws IOException
+    {
+    	expectUsable();
+    	
+    	Map<String, IAsyncRequestHandler> handlers = null;
+    	HashMap<String, IAsyncRequestHandler> updated = null;
+    	
+    	do
+    	{
+    		handlers = m_operationHandlers.get();
+    		updated = new HashMap<>(handlers);
+    		updated.put(operation, handler);
+    	}
+    	while (!m_operationHandlers.compareAndSet(handlers, updated));
+    	
+    	startIfAutomatic();
+    }
+    
+    /**
+     * Sets an asynchronous handler for the requests that no operation handler receives.
+     * While set, the request listeners receive no requests.
+     * @param handler Handler or null to notify the listeners again.
+     * @throws IOException Thrown if the object is in an unusable state.
+     */
+    public void setAsyncRequestHandler(IAsyncRequestHandler handler)
+    		throws IOException
+    {
+    	expectUsable();
+    	m_asyncRequestHandler = handler;
+    	
+    	if (handler != null)
+    	{
+    		startIfAutomatic();
+    	}
+    }
+    
+    /**
+     * Removes the handler of an operation. Any subsequent requests of the operation
+     * go to the asynchronous request handler, if any, or the request listeners.
+     * @param operation Operation name.
+     * @throws IOException Thrown if the object is in an unusable state.
+     */
+    public void removeOperationHandler(String operation)
+    		throws IOException
+    {
+    	expectUsable();
+    	
+    	Map<String, IAsyncRequestHandler> handlers = null;
+    	HashMap<String, IAsyncRequestHandler> updated = null;
     	
-    	synchronized (m_lockObject)
+    	do
     	{
-    		m_eventListeners.remove(lis);
+    		handlers = m_operationHandlers.get();
+    		updated = new HashMap<>(handlers);
+    		updated.remove(operation);
     	}
+    	while (!m_operationHandlers.compareAndSet(handlers, updated));
     }
     
     /**
-     * Sends a response to a request.
+     * Sends a response to a request. If manual acks are enabled, this acknowledges the request.
+     * This method can be called from multiple threads concurrently. The response is queued,
+     * and a dedicated thread publishes it, so any publishing error is not reported here.
+     * Such an error typically means a channel failure, which makes the object unusable.
      * @param args Event arguments.
      * @param msg Message.
-     * @throws IOException Thrown if publishing fails or if the object is in an unusable state.
+     * @throws IOException Thrown if the object is in an unusable state.
      */
     public void sendResponse(RequestReceivedEvent args, byte[] msg)
     		throws IOException
     {
     	expectConsumerIsActive();
     	
-    	BasicProperties replyProps = new BasicProperties
-    			.Builder()
-    			.correlationId(args.getCorrelationId())
-    			.build();
+    	BasicProperties replyProps = createResponseProperties(args.getCorrelationId(), null);
     	
-    	m_channel.basicPublish(m_exchangeName, args.getReplyTo(), replyProps, msg);
+    	// A client that uses the direct reply-to of RabbitMQ must be
+    	// responded to via the default exchange
+    	String replyTo = args.getReplyTo();
+    	String exchange = replyTo.startsWith(ITransport.DIRECT_REPLY_TO_QUEUE) ? "" : m_exchangeName;
     	
-    	// AutoAck is enabled -> no manual acking
-        // C#: channel.BasicAck(deliveryTag: eventArgs.DeliveryTag, multiple: false);
+    	getTransport().publish(exchange, replyTo, replyProps, msg, null);
+    	
+    	// The request has been served
+    	completeRequest(args, IMetrics.ServerOutcome.Responded);
     }
     
     @Override
-    protected void handleDeliveryImpl(BasicProperties properties, byte[] body)
+    protected void handleDeliveryImpl(long deliveryTag, BasicProperties properties, byte[] body)
     {
     	// A request has arrived in the queue!
     	
     	// Creating an event object to notify listeners.
     	RequestReceivedEvent eventObj = new RequestReceivedEvent(
-    			properties.getReplyTo(), properties.getCorrelationId(), body);
+    			properties.getReplyTo(), properties.getCorrelationId(), body,
+    			MessageHeaders.getString(properties, MessageHeaders.OPERATION),
+    			MessageHeaders.getLong(properties, MessageHeaders.DEADLINE, 0),
+    			getPriority(properties),
+    			m_manualAck ? deliveryTag : -1);
     	
-    	// Notifying listeners. Not iterating the listener list but a copy,
-    	// because this loop could take a long time to execute and this
-    	// could block another thread.
-    	HashSet<IRequestReceivedEventListener> copyOfListeners = null;
+    	if (m_manualAck)
+    	{
+    		eventObj.m_ackTransport = getTransport();
+    	}
+    	
+    	if (m_metrics != null)
+    	{
+    		eventObj.m_measured = true;
+    		eventObj.m_receivedNanos = System.nanoTime();
+    		m_metrics.requestReceived(getTopicName());
+    	}
+    	
+    	if (dropIfExpired(eventObj))
+    	{
+    		return; // The client is no longer waiting
+    	}
+    	
+    	if (m_admissionController != null)
+    	{
+    		if (!m_admissionController.tryAdmit(body.length))
+    		{
+    			sendOverloaded(eventObj);
+    			return;
+    		}
+    		
+    		eventObj.m_admitted = true;
+    	}
     	
-    	synchronized (m_lockObject)
+    	if (m_batcher == null && m_dispatcher == null)
     	{
-    		copyOfListeners = new HashSet<>(m_eventListeners);
+    		serveRequest(eventObj);
+    		return;
     	}
     	
-    	for (IRequestReceivedEventListener lis : copyOfListeners)
+    	// Letting the executor or batcher run the listeners. If too many requests are waiting,
+    	// this blocks the consumer thread, which stops receiving until there is room.
+    	try
+    	{
+    		if (m_batcher != null)
+    		{
+    			if (!m_batcher.add(eventObj))
+    			{
+    				rejectRequest(eventObj); // Closed
+    			}
+    		}
+    		else
+    		{
+    			m_dispatcher.dispatch(eventObj);
+    		}
+    	}
+    	catch (InterruptedException e)
+    	{
+    		rejectRequest(eventObj);
+    		Thread.currentThread().interrupt();
+    	}
+    	catch (RejectedExecutionException e)
+    	{
+    		rejectRequest(eventObj);
+    	}
+    }
+    
+    private void startIfAutomatic() throws IOException
+    {
+    	if (m_autoStart)
+    	{
+    		startConsuming();
+    	}
+    }
+    
+    private int getPriority(BasicProperties properties)
+    {
+    	Integer priority = properties.getPriority();
+    	
+    	if (m_maxPriority == 0 || priority == null || priority < 0)
+    	{
+    		return 0;
+    	}
+    	
+    	// Like the broker, treating priorities above the maximum as the maximum
+    	return Math.min(priority, m_maxPriority);
+    }
+    
+    /**
+     * Creates the properties of a response.
+     * @param correlationId Correlation ID of the request.
+     * @param headers Headers or null if none.
+     * @return Properties.
+     */
+    static BasicProperties createResponseProperties(String correlationId, Map<String, Object> headers)
+    {
+    	// The properties are immutable, so they cannot be reused for another
+    	// correlation ID. Using the constructor avoids allocating a builder.
+    	return new BasicProperties(null, null, headers, null, null,
+    			correlationId, null, null, null, null, null, null, null, null);
+    }
+    
+    private static Map<String, Object> createQueueArgs(ServerOptions options)
+    {
+    	if (options.getMaxPriority() == 0)
+    	{
+    		return null;
+    	}
+    	
+    	return Collections.<String, Object>singletonMap("x-max-priority", options.getMaxPriority());
+    }
+    
+    /**
+     * Returns the name of the work queue shared by the server instances of a topic.
+     * @param excName Exchange name.
+     * @param servTopic Server topic name.
+     * @return Queue name.
+     */
+    static String getWorkQueueName(String excName, String servTopic)
+    {
+    	return "workqueue-" + excName + "-" + servTopic;
+    }
+    
+    private void serveRequest(RequestReceivedEvent eventObj)
+    {
+    	// The request may have expired while queued
+    	if (m_dispatcher != null && dropIfExpired(eventObj))
+    	{
+    		return;
+    	}
+    	
+    	if (eventObj.m_measured)
+    	{
+    		markHandlerCalled(eventObj, System.nanoTime());
+    	}
+    	
+    	CompletableFuture<byte[]> future = notifyListeners(eventObj);
+    	
+    	if (future == null)
+    	{
+    		// The listeners have returned -> the handling is complete unless already
+    		completeRequest(eventObj, IMetrics.ServerOutcome.NoResponse);
+    	}
+    	else
+    	{
+    		future.whenComplete((response, exception) -> respondOrComplete(eventObj, response));
+    	}
+    }
+    
+    private void serveBatch(List<RequestReceivedEvent> batch)
+    {
+    	// The requests may have expired while gathered
+    	ArrayList<RequestReceivedEvent> unexpired = null;
+    	
+    	for (int i = 0; i < batch.size(); ++i)
+    	{
+    		RequestReceivedEvent eventObj = batch.get(i);
+    		
+    		if (dropIfExpired(eventObj))
+    		{
+    			if (unexpired == null)
+    			{
+    				unexpired = new ArrayList<>(batch.subList(0, i));
+    			}
+    		}
+    		else if (unexpired != null)
+    		{
+    			unexpired.add(eventObj);
+    		}
+    	}
+    	
+    	if (unexpired != null)
+    	{
+    		if (unexpired.isEmpty())
+    		{
+    			return;
+    		}
+    		
+    		batch = unexpired;
+    	}
+    	
+    	if (m_metrics != null)
+    	{
+    		long now = System.nanoTime();
+    		
+    		for (RequestReceivedEvent eventObj : batch)
+    		{
+    			markHandlerCalled(eventObj, now);
+    		}
+    	}
+    	
+    	List<byte[]> responses = null;
+    	
+    	try
+    	{
+    		responses = m_batchRequestHandler.handleRequests(Collections.unmodifiableList(batch));
+    	}
+    	catch (Exception e)
+    	{} // No can do
+    	
+    	for (int i = 0; i < batch.size(); ++i)
+    	{
+    		byte[] response = responses != null && i < responses.size() ? responses.get(i) : null;
+    		respondOrComplete(batch.get(i), response);
+    	}
+    }
+    
+    @Override
+    protected void handleConsumerInactive(String reason)
+    {
+    	if (m_batcher == null)
+    	{
+    		return;
+    	}
+    	
+    	// The requests still gathering will not be handled
+    	for (RequestReceivedEvent eventObj : m_batcher.close())
+    	{
+    		rejectRequest(eventObj);
+    	}
+    }
+    
+    private void respondOrComplete(RequestReceivedEvent eventObj, byte[] response)
+    {
+    	if (response != null)
+    	{
+    		try
+    		{
+    			sendResponse(eventObj, response);
+    			return;
+    		}
+    		catch (IOException e)
+    		{} // No can do; the object has become unusable
+    	}
+    	
+    	// No response -> the handler has failed
+    	completeRequest(eventObj, IMetrics.ServerOutcome.NoResponse);
+    }
+    
+    private boolean dropIfExpired(RequestReceivedEvent eventObj)
+    {
+    	if (!m_dropExpiredRequests || !eventObj.isExpired(System.currentTimeMillis()))
+    	{
+    		return false;
+    	}
+    	
+    	// Acknowledging if manual acks are enabled, because redelivery is pointless
+    	completeRequest(eventObj, IMetrics.ServerOutcome.Expired);
+    	return true;
+    }
+    
+    private void sendOverloaded(RequestReceivedEvent eventObj)
+    {
+    	String replyTo = eventObj.getReplyTo();
+    	
+    	if (replyTo != null)
+    	{
+    		BasicProperties replyProps = createResponseProperties(eventObj.getCorrelationId(), OVERLOADED_HEADERS);
+    		String exchange = replyTo.startsWith(ITransport.DIRECT_REPLY_TO_QUEUE) ? "" : m_exchangeName;
+    		
+    		try
+    		{
+    			getTransport().publish(exchange, replyTo, replyProps, new byte[0], null);
+    		}
+    		catch (IOException e)
+    		{} // No can do; the object has become unusable
+    	}
+    	
+    	// The client has been told, so there is no reason to deliver the request again
+    	completeRequest(eventObj, IMetrics.ServerOutcome.Overloaded);
+    }
+    
+    private static void markHandlerCalled(RequestReceivedEvent eventObj, long now)
+    {
+    	eventObj.m_handlerCalled = true;
+    	eventObj.m_handlerCalledNanos = now;
+    }
+    
+    private boolean markCompleted(RequestReceivedEvent eventObj, IMetrics.ServerOutcome outcome)
+    {
+    	if (!eventObj.markCompleted())
+    	{
+    		return false;
+    	}
+    	
+    	if (eventObj.m_admitted)
+    	{
+    		m_admissionController.release(eventObj.getMessage().length);
+    	}
+    	
+    	// The event may come from another server
+    	if (eventObj.m_measured && m_metrics != null)
+    	{
+    		long now = System.nanoTime();
+    		
+    		if (eventObj.m_handlerCalled)
+    		{
+    			m_metrics.requestServed(getTopicName(), outcome, eventObj.m_handlerCalledNanos - eventObj.m_receivedNanos,
+    					now - eventObj.m_handlerCalledNanos);
+    		}
+    		else
+    		{
+    			m_metrics.requestServed(getTopicName(), outcome, now - eventObj.m_receivedNanos, -1);
+    		}
+    	}
+    	
+    	return true;
+    }
+    
+    private void completeRequest(RequestReceivedEvent eventObj, IMetrics.ServerOutcome outcome)
+    {
+    	if (!markCompleted(eventObj, outcome) || eventObj.getDeliveryTag() < 0)
+    	{
+    		return; // Completed already or no manual acks
+    	}
+    	
+    	try
+    	{
+    		eventObj.m_ackTransport.ack(eventObj.getDeliveryTag());
+    	}
+    	catch (IOException | RuntimeException e)
+    	{} // No can do; the broker will redeliver the request once the channel closes
+    }
+    
+    private void rejectRequest(RequestReceivedEvent eventObj)
+    {
+    	// The request could not be served. If manual acks are enabled,
+    	// the broker can deliver it to another server instance.
+    	if (!markCompleted(eventObj, IMetrics.ServerOutcome.Rejected) || eventObj.getDeliveryTag() < 0)
+    	{
+    		return;
+    	}
+    	
+    	try
+    	{
+    		eventObj.m_ackTransport.nack(eventObj.getDeliveryTag(), true);
+    	}
+    	catch (IOException | RuntimeException e)
+    	{} // No can do
+    }
+    
+    private CompletableFuture<byte[]> notifyListeners(RequestReceivedEvent eventObj)
+    {
+    	// If the operation has a handler, only the handler receives the request
+    	String operation = eventObj.getOperation();
+    	IAsyncRequestHandler handler = operation == null ? null : m_operationHandlers.get().get(operation);
+    	
+    	if (handler == null)
+    	{
+    		handler = m_asyncRequestHandler;
+    	}
+    	
+    	if (handler != null)
+    	{
+    		try
+    		{
+    			return handler.handleRequest(eventObj);
+    		}
+    		catch (Exception e)
+    		{
+    			return null; // No can do
+    		}
+    	}
+    	
+    	// Notifying listeners. Not iterating the listener list but an immutable copy,
+    	// because this loop could take a long time to execute and this
+    	// could block another thread.
+    	IRequestReceivedEventListener[] listeners = m_eventListeners.get();
+    	
+    	for (IRequestReceivedEventListener lis : listeners)
     	{
     		try
     		{
@@ -133,5 +807,7 @@ public class RequestResponseServer extends ConsumerHolderBase
     		catch (Exception e)
     		{} // No can do
     	}
+    	
+    	return null;
     }
 }
@@ -0,0 +1,107 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.security.SecureRandom;
+
+/**
+ * The default correlation ID strategy. Each ID consists of a random prefix and a sequence number,
+ * such as "5f1c3a9e0b7d2c64.1a". The prefix is generated once per object, which makes the IDs
+ * unique between objects. Compared to a random UUID for each request, creating an ID requires
+ * no random numbers, and the resulting string is short.
+ * @author Petri Kannisto
+ */
+public class SequenceCorrelationIdStrategy implements ICorrelationIdStrategy
+{
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private static final char SEPARATOR = '.';
+	
+	// Used only to generate prefixes, i.e., once per object
+	private static final SecureRandom PREFIX_RANDOM = new SecureRandom();
+	
+	// Prefix including the separator
+	private final char[] m_prefix;
+	
+	
+	/**
+	 * Constructor. Generates a random prefix.
+	 */
+	public SequenceCorrelationIdStrategy()
+	{
+		char[] prefix = new char[17];
+		long random = PREFIX_RANDOM.nextLong();
+		
+		for (int i = 15; i >= 0; --i)
+		{
+			prefix[i] = HEX_DIGITS[(int)(random & 0xF)];
+			random >>>= 4;
+		}
+		
+		prefix[16] = SEPARATOR;
+		m_prefix = prefix;
+	}
+	
+	@Override
+	public String createCorrelationId(long sequence)
+	{
+		// Number of hex digits needed; at least one
+		int digits = Math.max(1, (64 - Long.numberOfLeadingZeros(sequence) + 3) / 4);
+		
+		char[] chars = new char[m_prefix.length + digits];
+		System.arraycopy(m_prefix, 0, chars, 0, m_prefix.length);
+		
+		for (int i = chars.length - 1; i >= m_prefix.length; --i)
+		{
+			chars[i] = HEX_DIGITS[(int)(sequence & 0xF)];
+			sequence >>>= 4;
+		}
+		
+		return new String(chars);
+	}
+	
+	@Override
+	public long parseSequence(String correlationId)
+	{
+		int length = correlationId.length();
+		
+		// Expecting the prefix and 1-16 hex digits
+		if (length <= m_prefix.length || length > m_prefix.length + 16)
+		{
+			return -1;
+		}
+		
+		for (int i = 0; i < m_prefix.length; ++i)
+		{
+			if (correlationId.charAt(i) != m_prefix[i])
+			{
+				return -1; // Another prefix
+			}
+		}
+		
+		long sequence = 0;
+		
+		for (int i = m_prefix.length; i < length; ++i)
+		{
+			int digit = Character.digit(correlationId.charAt(i), 16);
+			
+			if (digit < 0)
+			{
+				return -1;
+			}
+			
+			sequence = (sequence << 4) | digit;
+		}
+		
+		// A negative value cannot be a sequence number
+		return sequence < 0 ? -1 : sequence;
+	}
+}
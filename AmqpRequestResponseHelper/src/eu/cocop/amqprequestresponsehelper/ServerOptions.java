@@ -0,0 +1,451 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Options for RequestResponseServer. The options are read when the server is created;
+ * changing them afterwards has no effect on the server.
+ * @author Petri Kannisto
+ */
+public class ServerOptions
+{
+	private Executor m_executor = null;
+	private int m_maxConcurrency = Runtime.getRuntime().availableProcessors();
+	private int m_maxQueuedRequests = 1000;
+	private boolean m_manualAck = false;
+	private int m_prefetchCount = 0;
+	private boolean m_sharedWorkQueue = false;
+	private boolean m_dropExpiredRequests = true;
+	private int m_maxPriority = 0;
+	private int m_maxInFlightRequests = 0;
+	private long m_maxInFlightBytes = 0;
+	private IBatchRequestHandler m_batchRequestHandler = null;
+	private int m_maxBatchSize = 100;
+	private long m_maxBatchDelayMicros = 1000;
+	private IMetrics m_metrics = null;
+	private boolean m_manualStart = false;
+	
+	
+	/**
+	 * Constructor. Creates the default options.
+	 */
+	public ServerOptions()
+	{
+		// Empty ctor body
+	}
+	
+	/**
+	 * The executor to run the request listeners. If null, the listeners run in the
+	 * consumer thread of the AMQP client library, which means that each request waits
+	 * until the previous one has been handled. The default is null.
+	 * @return Executor or null.
+	 */
+	public Executor getExecutor()
+	{
+		return m_executor;
+	}
+	
+	/**
+	 * Sets the executor to run the request listeners. Any executor is applicable,
+	 * such as a thread pool or, in JDK 21 or later, an executor that starts
+	 * a virtual thread for each task. The server submits at most as many
+	 * tasks at a time as the maximum concurrency allows.
+	 * @param executor Executor or null to run the listeners in the consumer thread.
+	 * @return This object.
+	 */
+	public ServerOptions setExecutor(Executor executor)
+	{
+		m_executor = executor;
+		return this;
+	}
+	
+	/**
+	 * The maximum number of requests handled concurrently when an executor
+	 * has been set. The default is the number of processors.
+	 * @return Maximum concurrency.
+	 */
+	public int getMaxConcurrency()
+	{
+		return m_maxConcurrency;
+	}
+	
+	/**
+	 * Sets the maximum number of requests handled concurrently when an executor has been set.
+	 * @param max Maximum concurrency. Must be positive.
+	 * @return This object.
+	 */
+	public ServerOptions setMaxConcurrency(int max)
+	{
+		expectPositive(max, "Maximum concurrency");
+		m_maxConcurrency = max;
+		return this;
+	}
+	
+	/**
+	 * The maximum number of requests that wait for handling when an executor has been set.
+	 * Once reached, the consumer thread waits until there is room, which stops the
+	 * reception of further requests. The default is 1000.
+	 * @return Maximum number of queued requests.
+	 */
+	public int getMaxQueuedRequests()
+	{
+		return m_maxQueuedRequests;
+	}
+	
+	/**
+	 * Sets the maximum number of requests that wait for handling when an executor has been set.
+	 * @param max Maximum number of queued requests. Must be positive.
+	 * @return This object.
+	 */
+	public ServerOptions setMaxQueuedRequests(int max)
+	{
+		expectPositive(max, "Maximum number of queued requests");
+		m_maxQueuedRequests = max;
+		return this;
+	}
+	
+	/**
+	 * Whether requests are acknowledged manually. If false, the broker considers each request
+	 * handled once it has been delivered. The default is false.
+	 * @return True if manual acks are enabled.
+	 */
+	public boolean getManualAck()
+	{
+		return m_manualAck;
+	}
+	
+	/**
+	 * Sets whether requests are acknowledged manually. If true, the server acknowledges each
+	 * request once a response has been sent or once the listeners have returned, whichever
+	 * occurs first. Until then, the broker retains the request, and the broker will
+	 * redeliver it if the server disconnects. Use this with a prefetch count to limit
+	 * the number of requests held in memory.
+	 * @param manualAck True to enable manual acks.
+	 * @return This object.
+	 */
+	public ServerOptions setManualAck(boolean manualAck)
+	{
+		m_manualAck = manualAck;
+		return this;
+	}
+	
+	/**
+	 * The maximum number of unacknowledged requests delivered to the server.
+	 * Zero means no limit. The default is 0.
+	 * @return Prefetch count.
+	 */
+	public int getPrefetchCount()
+	{
+		return m_prefetchCount;
+	}
+	
+	/**
+	 * Sets the maximum number of unacknowledged requests delivered to the server
+	 * (see basicQos in the AMQP client library). Applies only if manual acks are enabled.
+	 * The broker keeps the rest of the requests, where other server instances
+	 * that consume the same queue can take them.
+	 * @param count Prefetch count or 0 for no limit. Must not be negative.
+	 * @return This object.
+	 */
+	public ServerOptions setPrefetchCount(int count)
+	{
+		if (count < 0)
+		{
+			throw new IllegalArgumentException("Prefetch count must not be negative");
+		}
+		
+		m_prefetchCount = count;
+		return this;
+	}
+	
+	/**
+	 * Whether the server consumes a work queue shared with other server instances.
+	 * The default is false.
+	 * @return True if a shared work queue is consumed.
+	 */
+	public boolean getSharedWorkQueue()
+	{
+		return m_sharedWorkQueue;
+	}
+	
+	/**
+	 * Sets whether the server consumes a work queue shared with other server instances.
+	 * 
+	 * If false, each server declares a queue of its own, and each request is delivered to
+	 * every server instance of the topic. If true, all servers of the same exchange and topic
+	 * consume a single named queue, and each request is delivered to only one of them.
+	 * This enables load balancing between server replicas. To balance by the actual load
+	 * instead of round robin, enable manual acks with a small prefetch count.
+	 * 
+	 * The shared queue is durable and not auto-deleted, so requests are retained
+	 * while no server is running. Every server instance of the topic must use the
+	 * same value of this option.
+	 * @param shared True to consume a shared work queue.
+	 * @return This object.
+	 */
+	public ServerOptions setSharedWorkQueue(boolean shared)
+	{
+		m_sharedWorkQueue = shared;
+		return this;
+	}
+	
+	/**
+	 * Whether the server drops the requests whose deadline has passed. The default is true.
+	 * @return True if expired requests are dropped.
+	 */
+	public boolean getDropExpiredRequests()
+	{
+		return m_dropExpiredRequests;
+	}
+	
+	/**
+	 * Sets whether the server drops the requests whose deadline has passed (see
+	 * MessageHeaders.DEADLINE). A dropped request reaches no listener or handler, and
+	 * no response is sent, because the client is no longer waiting for it. The deadline
+	 * is checked when a request arrives and again before it is handled. This requires that
+	 * the clocks of the clients and the server are synchronised. Set this to false if they
+	 * are not.
+	 * @param drop True to drop expired requests.
+	 * @return This object.
+	 */
+	public ServerOptions setDropExpiredRequests(boolean drop)
+	{
+		m_dropExpiredRequests = drop;
+		return this;
+	}
+	
+	/**
+	 * The maximum request priority of the server queue. Zero means that the requests
+	 * are not prioritised. The default is 0.
+	 * @return Maximum priority.
+	 */
+	public int getMaxPriority()
+	{
+		return m_maxPriority;
+	}
+	
+	/**
+	 * Sets the maximum request priority (see RequestResponseClient.setPriority). If set, the
+	 * server declares its queue with the "x-max-priority" argument so that the broker delivers
+	 * higher-priority requests first, and the executor, if any, also runs them first. Priorities
+	 * above the maximum are treated as the maximum. RabbitMQ recommends a maximum of 10 at most.
+	 * 
+	 * The arguments of an existing queue cannot be changed. If a shared work queue already exists
+	 * without this argument, the declaration fails. In that case, delete the queue first.
+	 * @param max Maximum priority from 1 to 255 or 0 to disable prioritisation.
+	 * @return This object.
+	 */
+	public ServerOptions setMaxPriority(int max)
+	{
+		if (max < 0 || max > 255)
+		{
+			throw new IllegalArgumentException("Max priority must be from 0 to 255");
+		}
+		
+		m_maxPriority = max;
+		return this;
+	}
+	
+	/**
+	 * The maximum number of requests in flight. Zero means no limit. The default is 0.
+	 * @return Maximum number of requests.
+	 */
+	public int getMaxInFlightRequests()
+	{
+		return m_maxInFlightRequests;
+	}
+	
+	/**
+	 * Sets the maximum number of requests in flight. A request is in flight from its
+	 * arrival until the response has been sent or the listeners have returned. If the limit
+	 * has been reached, the server immediately responds to further requests that it is
+	 * overloaded, and the client throws ServerOverloadedException. This keeps the latency of
+	 * the admitted requests low instead of letting every request time out.
+	 * @param max Maximum number of requests or 0 for no limit. Must not be negative.
+	 * @return This object.
+	 */
+	public ServerOptions setMaxInFlightRequests(int max)
+	{
+		if (max < 0)
+		{
+			throw new IllegalArgumentException("Max in-flight requests must not be negative");
+		}
+		
+		m_maxInFlightRequests = max;
+		return this;
+	}
+	
+	/**
+	 * The maximum total payload bytes of the requests in flight. Zero means no limit.
+	 * The default is 0.
+	 * @return Maximum bytes.
+	 */
+	public long getMaxInFlightBytes()
+	{
+		return m_maxInFlightBytes;
+	}
+	
+	/**
+	 * Sets the maximum total payload bytes of the requests in flight. Otherwise, this works
+	 * like setMaxInFlightRequests. A request larger than the limit is admitted only if no
+	 * other request is in flight.
+	 * @param max Maximum bytes or 0 for no limit. Must not be negative.
+	 * @return This object.
+	 */
+	public ServerOptions setMaxInFlightBytes(long max)
+	{
+		if (max < 0)
+		{
+			throw new IllegalArgumentException("Max in-flight bytes must not be negative");
+		}
+		
+		m_maxInFlightBytes = max;
+		return this;
+	}
+	
+	/**
+	 * The handler that receives the requests in batches. If null, the requests are handled
+	 * one at a time. The default is null.
+	 * @return Handler or null.
+	 */
+	public IBatchRequestHandler getBatchRequestHandler()
+	{
+		return m_batchRequestHandler;
+	}
+	
+	/**
+	 * Sets a handler that receives the requests in batches. The server gathers the requests
+	 * until a batch has the maximum batch size or its first request has waited for the maximum
+	 * batch delay. The handler receives every request, so the request listeners and operation
+	 * handlers of the server receive none. If an executor has been set, the batches are handled
+	 * in the executor. Then, the maximum concurrency limits the number of batches handled at a
+	 * time, and the maximum number of queued requests limits the requests waiting to be handed
+	 * over. Otherwise, the batches are handled one at a time in a dedicated thread.
+	 * @param handler Handler or null to handle the requests one at a time.
+	 * @return This object.
+	 */
+	public ServerOptions setBatchRequestHandler(IBatchRequestHandler handler)
+	{
+		m_batchRequestHandler = handler;
+		return this;
+	}
+	
+	/**
+	 * The maximum number of requests in a batch. The default is 100.
+	 * @return Maximum batch size.
+	 */
+	public int getMaxBatchSize()
+	{
+		return m_maxBatchSize;
+	}
+	
+	/**
+	 * Sets the maximum number of requests in a batch. Applies only if a batch handler has been set.
+	 * @param max Maximum batch size. Must be positive.
+	 * @return This object.
+	 */
+	public ServerOptions setMaxBatchSize(int max)
+	{
+		expectPositive(max, "Max batch size");
+		m_maxBatchSize = max;
+		return this;
+	}
+	
+	/**
+	 * The maximum time in microseconds that a request waits for its batch to fill.
+	 * The default is 1000.
+	 * @return Maximum batch delay in microseconds.
+	 */
+	public long getMaxBatchDelayMicros()
+	{
+		return m_maxBatchDelayMicros;
+	}
+	
+	/**
+	 * Sets the maximum time in microseconds that a request waits for its batch to fill.
+	 * Applies only if a batch handler has been set. A longer delay gives larger batches
+	 * under light load, whereas under heavy load the batches fill before the delay.
+	 * @param micros Maximum batch delay in microseconds. Must not be negative.
+	 * @return This object.
+	 */
+	public ServerOptions setMaxBatchDelayMicros(long micros)
+	{
+		if (micros < 0)
+		{
+			throw new IllegalArgumentException("Max batch delay must not be negative");
+		}
+		
+		m_maxBatchDelayMicros = micros;
+		return this;
+	}
+	
+	/**
+	 * The metrics that measure the requests of the server. The default is null.
+	 * @return Metrics or null if not measured.
+	 */
+	public IMetrics getMetrics()
+	{
+		return m_metrics;
+	}
+	
+	/**
+	 * Sets the metrics that measure the requests of the server. The server reports each
+	 * request and its outcome, how long it waited before its handler was called, and
+	 * how long the handler took to complete it.
+	 * @param metrics Metrics, such as DefaultMetrics, or null to not measure.
+	 * @return This object.
+	 */
+	public ServerOptions setMetrics(IMetrics metrics)
+	{
+		m_metrics = metrics;
+		return this;
+	}
+	
+	/**
+	 * Whether the server starts receiving requests only once RequestResponseServer.start
+	 * is called. The default is false.
+	 * @return True if started manually.
+	 */
+	public boolean getManualStart()
+	{
+		return m_manualStart;
+	}
+	
+	/**
+	 * Sets whether the server starts receiving requests only once RequestResponseServer.start
+	 * is called. Until then, the requests wait in a shared work queue. The queue of a single
+	 * server is declared only once the server starts.
+	 * 
+	 * If false, the server starts once the first listener or handler is registered, or at the end
+	 * of the constructor if a batch handler has been set. If you register multiple operation
+	 * handlers, set this to true and call start after registering all of them. Otherwise, the requests
+	 * of an operation may arrive before its handler, particularly from a shared work queue
+	 * that has retained requests while no server was running.
+	 * @param manual True to start manually.
+	 * @return This object.
+	 */
+	public ServerOptions setManualStart(boolean manual)
+	{
+		m_manualStart = manual;
+		return this;
+	}
+	
+	private static void expectPositive(int value, String name)
+	{
+		if (value <= 0)
+		{
+			throw new IllegalArgumentException(name + " must be positive");
+		}
+	}
+}
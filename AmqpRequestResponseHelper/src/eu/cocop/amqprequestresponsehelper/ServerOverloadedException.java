@@ -0,0 +1,35 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the server has rejected a request because it is overloaded. The server
+ * responds so immediately instead of letting the request wait until it times out.
+ * The request was not handled, so it is safe to retry later, preferably after a delay.
+ * @author Petri Kannisto
+ */
+public class ServerOverloadedException extends IOException
+{
+	private static final long serialVersionUID = 1L;
+	
+	
+	/**
+	 * Constructor.
+	 * @param message Message.
+	 */
+	public ServerOverloadedException(String message)
+	{
+		super(message);
+	}
+}
@@ -0,0 +1,188 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of the requests that servers receive in a topic. See DefaultMetrics.
+ * @author Petri Kannisto
+ */
+public final class ServerTopicMetrics implements IServerTopicMetricsMXBean
+{
+	private final String m_topic;
+	
+	private final LongAdder m_received = new LongAdder();
+	private final LongAdder m_inFlight = new LongAdder();
+	
+	// Completed requests by outcome
+	private final LongAdder[] m_outcomes = ClientTopicMetrics.createAdders(IMetrics.ServerOutcome.values().length);
+	
+	// The waits and handler times of the requests whose handler was called
+	private final LatencyHistogram m_wait = new LatencyHistogram();
+	private final LatencyHistogram m_handlerTime = new LatencyHistogram();
+	
+	
+	/**
+	 * Constructor.
+	 * @param topic Server topic.
+	 */
+	ServerTopicMetrics(String topic)
+	{
+		m_topic = topic;
+	}
+	
+	/**
+	 * Records a received request.
+	 */
+	void recordReceived()
+	{
+		m_received.increment();
+		m_inFlight.increment();
+	}
+	
+	/**
+	 * Records a completed request.
+	 * @param outcome Outcome.
+	 * @param waitNanos Wait in nanoseconds.
+	 * @param handlerNanos Handler time in nanoseconds or -1 if the handler was not called.
+	 */
+	void recordServed(IMetrics.ServerOutcome outcome, long waitNanos, long handlerNanos)
+	{
+		m_inFlight.decrement();
+		m_outcomes[outcome.ordinal()].increment();
+		
+		if (handlerNanos >= 0)
+		{
+			m_wait.record(waitNanos);
+			m_handlerTime.record(handlerNanos);
+		}
+	}
+	
+	/**
+	 * Returns the number of requests completed with an outcome.
+	 * @param outcome Outcome.
+	 * @return Count.
+	 */
+	public long getCount(IMetrics.ServerOutcome outcome)
+	{
+		return m_outcomes[outcome.ordinal()].sum();
+	}
+	
+	/**
+	 * Returns the histogram of the time from the arrival of a request until its handler is called.
+	 * @return Histogram.
+	 */
+	public LatencyHistogram getWait()
+	{
+		return m_wait;
+	}
+	
+	/**
+	 * Returns the histogram of the time from calling the handler until the request is complete.
+	 * @return Histogram.
+	 */
+	public LatencyHistogram getHandlerTime()
+	{
+		return m_handlerTime;
+	}
+	
+	@Override
+	public String getTopic()
+	{
+		return m_topic;
+	}
+	
+	@Override
+	public long getRequestsReceived()
+	{
+		return m_received.sum();
+	}
+	
+	@Override
+	public long getInFlight()
+	{
+		return m_inFlight.sum();
+	}
+	
+	@Override
+	public long getResponded()
+	{
+		return getCount(IMetrics.ServerOutcome.Responded);
+	}
+	
+	@Override
+	public long getNoResponse()
+	{
+		return getCount(IMetrics.ServerOutcome.NoResponse);
+	}
+	
+	@Override
+	public long getExpired()
+	{
+		return getCount(IMetrics.ServerOutcome.Expired);
+	}
+	
+	@Override
+	public long getOverloaded()
+	{
+		return getCount(IMetrics.ServerOutcome.Overloaded);
+	}
+	
+	@Override
+	public long getRejected()
+	{
+		return getCount(IMetrics.ServerOutcome.Rejected);
+	}
+	
+	@Override
+	public long getWaitP50Micros()
+	{
+		return m_wait.getValueAtPercentile(50) / 1000;
+	}
+	
+	@Override
+	public long getWaitP99Micros()
+	{
+		return m_wait.getValueAtPercentile(99) / 1000;
+	}
+	
+	@Override
+	public double getHandlerMeanMicros()
+	{
+		return m_handlerTime.getMean() / 1000;
+	}
+	
+	@Override
+	public long getHandlerP50Micros()
+	{
+		return m_handlerTime.getValueAtPercentile(50) / 1000;
+	}
+	
+	@Override
+	public long getHandlerP99Micros()
+	{
+		return m_handlerTime.getValueAtPercentile(99) / 1000;
+	}
+	
+	@Override
+	public long getHandlerP999Micros()
+	{
+		return m_handlerTime.getValueAtPercentile(99.9) / 1000;
+	}
+	
+	@Override
+	public long getHandlerMaxMicros()
+	{
+		return m_handlerTime.getMax() / 1000;
+	}
+}
@@ -0,0 +1,208 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ShutdownListener;
+
+/**
+ * Remembers the exchanges, named queues and their bindings that have been declared
+ * on a connection, so that they are declared only once per connection. Each declaration
+ * is a round trip to the broker, which adds up when many objects are created.
+ * 
+ * The cache of a connection is dropped when the connection shuts down, because the
+ * declarations are then redone on the next connection anyway. Each cache registers
+ * its shutdown listener once and removes it when dropped. Queues with a generated
+ * name are never cached, because each of them is declared only once.
+ * @author Petri Kannisto
+ */
+final class TopologyCache
+{
+	// The cache of each connection. Connections are compared by identity.
+	private static final IdentityHashMap<Connection, TopologyCache> CACHES = new IdentityHashMap<>();
+	
+	// Used if the channel has no connection; declares everything
+	private static final TopologyCache UNCACHED = new TopologyCache(null);
+	
+	private final boolean m_enabled;
+	
+	// Drops the cache when the connection shuts down; null if not cached
+	private final ShutdownListener m_shutdownListener;
+	
+	private final Set<String> m_exchanges = ConcurrentHashMap.newKeySet();
+	private final Set<String> m_queues = ConcurrentHashMap.newKeySet();
+	private final Set<String> m_bindings = ConcurrentHashMap.newKeySet();
+	
+	
+	private TopologyCache(Connection connection)
+	{
+		m_enabled = connection != null;
+		m_shutdownListener = connection == null ? null : cause -> invalidate(connection);
+	}
+	
+	/**
+	 * Returns the cache of the connection of a channel, creating it if necessary.
+	 * @param channel Channel.
+	 * @return Cache.
+	 */
+	static TopologyCache get(Channel channel)
+	{
+		Connection connection = channel.getConnection();
+		
+		if (connection == null)
+		{
+			return UNCACHED;
+		}
+		
+		synchronized (CACHES)
+		{
+			TopologyCache cache = CACHES.get(connection);
+			
+			if (cache == null)
+			{
+				cache = new TopologyCache(connection);
+				CACHES.put(connection, cache);
+				
+				// The declarations are lost with the connection
+				connection.addShutdownListener(cache.m_shutdownListener);
+			}
+			
+			return cache;
+		}
+	}
+	
+	/**
+	 * Drops the cache of the connection of a channel. The next declarations go to the broker.
+	 * @param channel Channel.
+	 */
+	static void invalidate(Channel channel)
+	{
+		Connection connection = channel.getConnection();
+		
+		if (connection != null)
+		{
+			invalidate(connection);
+		}
+	}
+	
+	private static void invalidate(Connection connection)
+	{
+		TopologyCache removed = null;
+		
+		synchronized (CACHES)
+		{
+			removed = CACHES.remove(connection);
+		}
+		
+		// Otherwise, each new cache of the connection would add a listener
+		if (removed != null)
+		{
+			try
+			{
+				connection.removeShutdownListener(removed.m_shutdownListener);
+			}
+			catch (Exception e)
+			{} // No can do
+		}
+	}
+	
+	/**
+	 * Declares a durable topic exchange unless already declared.
+	 * @param channel Channel.
+	 * @param exchange Exchange name.
+	 * @throws IOException Thrown if an error occurs.
+	 */
+	void declareTopicExchange(Channel channel, String exchange) throws IOException
+	{
+		if (m_enabled && m_exchanges.contains(exchange))
+		{
+			return;
+		}
+		
+		boolean exDurable = true;
+    	boolean exAutoDelete = false;
+    	channel.exchangeDeclare(exchange, BuiltinExchangeType.TOPIC, exDurable, exAutoDelete, null);
+    	
+    	if (m_enabled)
+    	{
+    		m_exchanges.add(exchange);
+    	}
+	}
+	
+	/**
+	 * Declares a durable queue unless a queue of the same name and arguments has been declared.
+	 * @param channel Channel.
+	 * @param queue Queue name or null to use a generated name.
+	 * @param queueArgs Queue arguments or null if none.
+	 * @return The name of the queue.
+	 * @throws IOException Thrown if an error occurs.
+	 */
+	String declareQueue(Channel channel, String queue, Map<String, Object> queueArgs) throws IOException
+	{
+		String key = queue + "|" + queueArgs;
+		
+		if (m_enabled && queue != null && m_queues.contains(key))
+		{
+			return queue;
+		}
+		
+		// A named queue is shared by multiple consumers, and it is not auto-deleted so that
+    	// messages are retained even if all consumers disconnect for a while.
+		boolean qDurable = true;
+    	boolean qExclusive = false;
+    	boolean qAutoDelete = queue == null;
+        String retval = channel.queueDeclare(queue == null ? "" : queue,
+        		qDurable, qExclusive, qAutoDelete, queueArgs).getQueue();
+        
+        if (m_enabled && queue != null)
+        {
+        	m_queues.add(key);
+        }
+        
+        return retval;
+	}
+	
+	/**
+	 * Binds a queue to a topic unless already bound.
+	 * @param channel Channel.
+	 * @param queue Queue name.
+	 * @param exchange Exchange name.
+	 * @param topic Topic.
+	 * @param cacheable Whether to cache the binding. False if the queue name is generated.
+	 * @throws IOException Thrown if an error occurs.
+	 */
+	void bindQueue(Channel channel, String queue, String exchange, String topic, boolean cacheable)
+			throws IOException
+	{
+		String key = queue + "|" + exchange + "|" + topic;
+		
+		if (m_enabled && cacheable && m_bindings.contains(key))
+		{
+			return;
+		}
+		
+		channel.queueBind(queue, exchange, topic);
+		
+		if (m_enabled && cacheable)
+		{
+			m_bindings.add(key);
+		}
+	}
+}
@@ -0,0 +1,670 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper.clienttest;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+
+import eu.cocop.amqprequestresponsehelper.ITransport;
+import eu.cocop.amqprequestresponsehelper.LatencyHistogram;
+import eu.cocop.amqprequestresponsehelper.LoopbackBroker;
+import eu.cocop.amqprequestresponsehelper.RequestResponseClient;
+import eu.cocop.amqprequestresponsehelper.RequestResponseServer;
+import eu.cocop.amqprequestresponsehelper.ServerOptions;
+import eu.cocop.amqprequestresponsehelper.ServerOverloadedException;
+
+/**
+ * Generates load on a server topic and reports the throughput and latency. Unlike
+ * ClientTest, this runs without user input, so it can be scripted for capacity planning.
+ * 
+ * The load is open-loop: each request has an intended send time at the fixed arrival rate,
+ * and its latency is measured from that time rather than from when it was actually sent.
+ * Therefore, a slow server cannot hold back the requests and hide its own latency (that is,
+ * there is no coordinated omission). If the generator itself falls behind, the requests are
+ * sent as soon as possible, and the lag is reported.
+ * 
+ * A run is performed for each combination of the given concurrencies and payload sizes.
+ * The concurrency is the number of clients, each with a channel and sending thread of its
+ * own, that share the arrival rate. The report is written in JSON or CSV. The latency
+ * percentiles are accurate to 12.5 % (see LatencyHistogram), and they only include the
+ * requests that were responded to; the other outcomes are counted separately.
+ * 
+ * Run without arguments to see the options. With "--loopback", the requests go to an echo
+ * server in this process via LoopbackBroker, which shows the overhead of the library and
+ * of the generator itself.
+ * @author Petri Kannisto
+ */
+public class LoadGenerator
+{
+	private static final String USAGE =
+			"Usage: LoadGenerator (--host <host> --user <user> | --loopback) [options]\n" +
+			"  --password <pwd>      Password; defaults to the environment variable AMQP_PASSWORD\n" +
+			"  --exchange <name>     Exchange name (default: cocoptest-durable)\n" +
+			"  --topic <name>        Target server topic (default: cocoptest.my_request_topic_2)\n" +
+			"  --rate <n>            Requests per second in total (default: 100)\n" +
+			"  --duration <s>        Measured seconds per run (default: 30)\n" +
+			"  --warmup <s>          Unmeasured seconds before each run (default: 5)\n" +
+			"  --concurrency <list>  Comma-separated client counts (default: 1)\n" +
+			"  --payload <list>      Comma-separated request sizes in bytes (default: 64)\n" +
+			"  --timeout <ms>        Request timeout (default: 5000)\n" +
+			"  --reply-mode <mode>   ReplyQueue or DirectReplyTo (default: DirectReplyTo)\n" +
+			"  --format <format>     json or csv (default: json)\n" +
+			"  --loopback            Serve the requests in this process without a broker";
+	
+	// Sleeping is imprecise, so the last moments before a send are spent yielding
+	private static final long SPIN_THRESHOLD_NANOS = 100_000;
+	
+	private static final long NANOS_PER_SECOND = 1_000_000_000L;
+	private static final double NANOS_PER_MS = 1_000_000.0;
+	
+	
+	/**
+	 * Entry point of the program.
+	 * @param args Arguments.
+	 * @throws Exception Thrown if an error occurs.
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		Options options = null;
+		
+		try
+		{
+			options = Options.parse(args);
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+		
+		ArrayList<RunResult> results = new ArrayList<>();
+		
+		if (options.m_loopback)
+		{
+			runLoopback(options, results);
+		}
+		else
+		{
+			runBroker(options, results);
+		}
+		
+		// The report goes to the standard output and the progress to the standard error
+		if (options.m_format.equals("csv"))
+		{
+			writeCsv(System.out, options, results);
+		}
+		else
+		{
+			writeJson(System.out, options, results);
+		}
+	}
+	
+	
+	// ### Private methods ###
+	
+	private static void runBroker(Options options, List<RunResult> results) throws Exception
+	{
+		// Setting connection parameters as in ClientTest.
+		// For more information, see https://www.rabbitmq.com/ssl.html
+		ConnectionFactory factory = new ConnectionFactory();
+		factory.useSslProtocol();
+		factory.setUri(String.format("amqps://%s:%s@%s:%d", options.m_user, options.m_password, options.m_host, 5671));
+		
+		Connection connection = factory.newConnection();
+		
+		try
+		{
+			// Each client has a channel of its own so that they publish in parallel
+			runAll(options, results, resources ->
+			{
+				Channel channel = connection.createChannel();
+				resources.add(channel::close);
+				return new RequestResponseClient(channel, options.m_exchange, options.m_topic, options.m_replyMode);
+			});
+		}
+		finally
+		{
+			connection.close();
+		}
+	}
+	
+	private static void runLoopback(Options options, List<RunResult> results) throws Exception
+	{
+		LoopbackBroker broker = new LoopbackBroker();
+		ITransport serverTransport = broker.createTransport();
+		RequestResponseServer server = null;
+		
+		try
+		{
+			server = new RequestResponseServer(serverTransport, options.m_exchange, options.m_topic, new ServerOptions());
+			final RequestResponseServer echoServer = server;
+			
+			// Echoing each request
+			server.addRequestReceivedEventListener((source, ev) ->
+			{
+				try
+				{
+					echoServer.sendResponse(ev, ev.getMessage());
+				}
+				catch (IOException e)
+				{} // The client will time out
+			});
+			
+			runAll(options, results, resources ->
+			{
+				ITransport transport = broker.createTransport();
+				resources.add(transport::close);
+				return new RequestResponseClient(transport, options.m_exchange, options.m_topic, options.m_replyMode);
+			});
+		}
+		finally
+		{
+			if (server != null) server.close();
+			serverTransport.close();
+		}
+	}
+	
+	private static void runAll(Options options, List<RunResult> results, IClientFactory clientFactory)
+			throws Exception
+	{
+		for (int concurrency : options.m_concurrencies)
+		{
+			for (int payloadSize : options.m_payloadSizes)
+			{
+				System.err.println(String.format(Locale.ROOT, "Running: concurrency %d, payload %d bytes, %.1f requests/s...",
+						concurrency, payloadSize, options.m_rate));
+				
+				results.add(runOnce(options, clientFactory, concurrency, payloadSize));
+			}
+		}
+	}
+	
+	private static RunResult runOnce(Options options, IClientFactory clientFactory, int concurrency, int payloadSize)
+			throws Exception
+	{
+		ArrayList<AutoCloseable> resources = new ArrayList<>();
+		
+		try
+		{
+			ArrayList<RequestResponseClient> clients = new ArrayList<>();
+			
+			for (int i = 0; i < concurrency; ++i)
+			{
+				RequestResponseClient client = clientFactory.createClient(resources);
+				resources.add(client::close);
+				clients.add(client);
+			}
+			
+			// The payload is never modified, so all requests can share it
+			byte[] payload = new byte[payloadSize];
+			Arrays.fill(payload, (byte)'x');
+			
+			// Each client sends every concurrency-th request, so together
+			// they send at the arrival rate with even gaps
+			long gapNanos = Math.max((long)(NANOS_PER_SECOND / options.m_rate), 1);
+			long startNanos = System.nanoTime() + 100_000_000; // Giving the threads time to start
+			long measureStartNanos = startNanos + options.m_warmupSeconds * NANOS_PER_SECOND;
+			long endNanos = measureStartNanos + options.m_durationSeconds * NANOS_PER_SECOND;
+			RunResult result = new RunResult(concurrency, payloadSize, options.m_rate, options.m_durationSeconds);
+			ArrayList<Thread> threads = new ArrayList<>();
+			
+			for (int i = 0; i < concurrency; ++i)
+			{
+				Sender sender = new Sender(clients.get(i), payload, options.m_timeoutMs, result,
+						startNanos + i * gapNanos, gapNanos * concurrency, measureStartNanos, endNanos);
+				Thread thread = new Thread(sender, "LoadGenerator-" + i);
+				thread.start();
+				threads.add(thread);
+			}
+			
+			for (Thread thread : threads)
+			{
+				thread.join();
+			}
+			
+			// Waiting for the last responses; each request times out at the latest
+			long drainDeadline = System.nanoTime() + (options.m_timeoutMs + 1000) * 1_000_000;
+			
+			while (result.m_outstanding.get() > 0 && System.nanoTime() < drainDeadline)
+			{
+				Thread.sleep(10);
+			}
+			
+			return result;
+		}
+		finally
+		{
+			// Closing the clients before their channels or transports
+			for (int i = resources.size() - 1; i >= 0; --i)
+			{
+				try
+				{
+					resources.get(i).close();
+				}
+				catch (Exception e)
+				{} // No can do
+			}
+		}
+	}
+	
+	private static void writeJson(PrintStream out, Options options, List<RunResult> results)
+	{
+		StringBuilder builder = new StringBuilder();
+		builder.append("{\n");
+		builder.append("  \"target\": ").append(options.m_loopback ? "\"loopback\"" : quote(options.m_host)).append(",\n");
+		builder.append("  \"exchange\": ").append(quote(options.m_exchange)).append(",\n");
+		builder.append("  \"topic\": ").append(quote(options.m_topic)).append(",\n");
+		builder.append("  \"replyMode\": ").append(quote(options.m_replyMode.name())).append(",\n");
+		builder.append("  \"timeoutMs\": ").append(options.m_timeoutMs).append(",\n");
+		builder.append("  \"warmupSeconds\": ").append(options.m_warmupSeconds).append(",\n");
+		builder.append("  \"runs\": [");
+		
+		for (int i = 0; i < results.size(); ++i)
+		{
+			RunResult result = results.get(i);
+			LatencyHistogram latency = result.m_latency;
+			
+			builder.append(i == 0 ? "\n" : ",\n");
+			builder.append("    {");
+			builder.append("\"concurrency\": ").append(result.m_concurrency);
+			builder.append(", \"payloadBytes\": ").append(result.m_payloadSize);
+			builder.append(", \"targetRate\": ").append(format(result.m_targetRate));
+			builder.append(", \"durationSeconds\": ").append(result.m_durationSeconds);
+			builder.append(", \"sent\": ").append(result.m_sent.sum());
+			builder.append(", \"succeeded\": ").append(result.m_succeeded.sum());
+			builder.append(", \"timedOut\": ").append(result.m_timedOut.sum());
+			builder.append(", \"overloaded\": ").append(result.m_overloaded.sum());
+			builder.append(", \"failed\": ").append(result.m_failed.sum());
+			builder.append(", \"unfinished\": ").append(result.m_outstanding.get());
+			builder.append(", \"sendRate\": ").append(format(result.getSendRate()));
+			builder.append(", \"throughput\": ").append(format(result.getThroughput()));
+			builder.append(", \"maxSendLagMs\": ").append(format(result.m_maxSendLagNanos.get() / NANOS_PER_MS));
+			builder.append(", \"latencyMs\": {");
+			builder.append("\"mean\": ").append(format(latency.getMean() / NANOS_PER_MS));
+			builder.append(", \"p50\": ").append(formatPercentile(latency, 50));
+			builder.append(", \"p99\": ").append(formatPercentile(latency, 99));
+			builder.append(", \"p99.9\": ").append(formatPercentile(latency, 99.9));
+			builder.append(", \"max\": ").append(format(latency.getMax() / NANOS_PER_MS));
+			builder.append("}}");
+		}
+		
+		builder.append("\n  ]\n}");
+		out.println(builder.toString());
+	}
+	
+	private static void writeCsv(PrintStream out, Options options, List<RunResult> results)
+	{
+		out.println("concurrency,payloadBytes,targetRate,durationSeconds,sent,succeeded,timedOut,overloaded,failed,"
+				+ "unfinished,sendRate,throughput,maxSendLagMs,meanMs,p50Ms,p99Ms,p999Ms,maxMs");
+		
+		for (RunResult result : results)
+		{
+			LatencyHistogram latency = result.m_latency;
+			
+			out.println(String.join(",",
+					Integer.toString(result.m_concurrency),
+					Integer.toString(result.m_payloadSize),
+					format(result.m_targetRate),
+					Long.toString(result.m_durationSeconds),
+					Long.toString(result.m_sent.sum()),
+					Long.toString(result.m_succeeded.sum()),
+					Long.toString(result.m_timedOut.sum()),
+					Long.toString(result.m_overloaded.sum()),
+					Long.toString(result.m_failed.sum()),
+					Long.toString(result.m_outstanding.get()),
+					format(result.getSendRate()),
+					format(result.getThroughput()),
+					format(result.m_maxSendLagNanos.get() / NANOS_PER_MS),
+					format(latency.getMean() / NANOS_PER_MS),
+					formatPercentile(latency, 50),
+					formatPercentile(latency, 99),
+					formatPercentile(latency, 99.9),
+					format(latency.getMax() / NANOS_PER_MS)));
+		}
+	}
+	
+	private static String formatPercentile(LatencyHistogram histogram, double percentile)
+	{
+		return format(histogram.getValueAtPercentile(percentile) / NANOS_PER_MS);
+	}
+	
+	private static String format(double value)
+	{
+		// Always a dot as the decimal separator for machine readability
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+	
+	private static String quote(String value)
+	{
+		return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+	
+	
+	/**
+	 * Creates a client for a run.
+	 */
+	private interface IClientFactory
+	{
+		/**
+		 * Creates a client.
+		 * @param resources Receives what must be closed after the client.
+		 * @return Client.
+		 * @throws IOException Thrown if an error occurs.
+		 */
+		RequestResponseClient createClient(List<AutoCloseable> resources) throws IOException;
+	}
+	
+	/**
+	 * Sends the requests of one client at fixed intervals.
+	 */
+	private static final class Sender implements Runnable
+	{
+		private final RequestResponseClient m_client;
+		private final byte[] m_payload;
+		private final long m_timeoutMs;
+		private final RunResult m_result;
+		private final long m_firstSendNanos;
+		private final long m_intervalNanos;
+		private final long m_measureStartNanos;
+		private final long m_endNanos;
+		
+		
+		private Sender(RequestResponseClient client, byte[] payload, long timeoutMs, RunResult result,
+				long firstSendNanos, long intervalNanos, long measureStartNanos, long endNanos)
+		{
+			m_client = client;
+			m_payload = payload;
+			m_timeoutMs = timeoutMs;
+			m_result = result;
+			m_firstSendNanos = firstSendNanos;
+			m_intervalNanos = intervalNanos;
+			m_measureStartNanos = measureStartNanos;
+			m_endNanos = endNanos;
+		}
+		
+		@Override
+		public void run()
+		{
+			// The schedule is fixed in advance. A late send does not delay the ones after it.
+			for (long intended = m_firstSendNanos; intended < m_endNanos; intended += m_intervalNanos)
+			{
+				waitUntil(intended);
+				
+				final long intendedNanos = intended;
+				final boolean measured = intended >= m_measureStartNanos;
+				
+				if (measured)
+				{
+					m_result.sent(System.nanoTime() - intended);
+				}
+				
+				try
+				{
+					m_client.performRequestAsync(m_payload, m_timeoutMs)
+						.whenComplete((response, error) -> m_result.completed(intendedNanos, measured, error));
+				}
+				catch (IOException e)
+				{
+					m_result.completed(intendedNanos, measured, e);
+				}
+			}
+		}
+		
+		private static void waitUntil(long nanoTime)
+		{
+			while (true)
+			{
+				long remaining = nanoTime - System.nanoTime();
+				
+				if (remaining <= 0)
+				{
+					return;
+				}
+				
+				if (remaining > SPIN_THRESHOLD_NANOS)
+				{
+					LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+				}
+				else
+				{
+					Thread.yield();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * The measurements of a run. The senders and response threads update this concurrently.
+	 */
+	private static final class RunResult
+	{
+		private final int m_concurrency;
+		private final int m_payloadSize;
+		private final double m_targetRate;
+		private final long m_durationSeconds;
+		
+		private final LatencyHistogram m_latency = new LatencyHistogram();
+		private final LongAdder m_sent = new LongAdder();
+		private final LongAdder m_succeeded = new LongAdder();
+		private final LongAdder m_timedOut = new LongAdder();
+		private final LongAdder m_overloaded = new LongAdder();
+		private final LongAdder m_failed = new LongAdder();
+		private final AtomicLong m_maxSendLagNanos = new AtomicLong(0);
+		
+		// The measured requests that have not completed yet
+		private final AtomicLong m_outstanding = new AtomicLong(0);
+		
+		
+		private RunResult(int concurrency, int payloadSize, double targetRate, long durationSeconds)
+		{
+			m_concurrency = concurrency;
+			m_payloadSize = payloadSize;
+			m_targetRate = targetRate;
+			m_durationSeconds = durationSeconds;
+		}
+		
+		private void sent(long lagNanos)
+		{
+			m_sent.increment();
+			m_outstanding.incrementAndGet();
+			
+			long max = m_maxSendLagNanos.get();
+			
+			while (lagNanos > max && !m_maxSendLagNanos.compareAndSet(max, lagNanos))
+			{
+				max = m_maxSendLagNanos.get();
+			}
+		}
+		
+		private void completed(long intendedNanos, boolean measured, Throwable error)
+		{
+			if (!measured)
+			{
+				return; // Warmup
+			}
+			
+			// Measured from the intended send time; see the class description
+			long latencyNanos = System.nanoTime() - intendedNanos;
+			Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+			
+			if (cause == null)
+			{
+				m_latency.record(latencyNanos);
+				m_succeeded.increment();
+			}
+			else if (cause instanceof TimeoutException)
+			{
+				m_timedOut.increment();
+			}
+			else if (cause instanceof ServerOverloadedException)
+			{
+				m_overloaded.increment();
+			}
+			else
+			{
+				m_failed.increment();
+			}
+			
+			m_outstanding.decrementAndGet();
+		}
+		
+		private double getSendRate()
+		{
+			return (double)m_sent.sum() / m_durationSeconds;
+		}
+		
+		private double getThroughput()
+		{
+			return (double)m_succeeded.sum() / m_durationSeconds;
+		}
+	}
+	
+	/**
+	 * Command line options.
+	 */
+	private static final class Options
+	{
+		private String m_host = null;
+		private String m_user = null;
+		private String m_password = System.getenv("AMQP_PASSWORD");
+		private String m_exchange = "cocoptest-durable";
+		private String m_topic = "cocoptest.my_request_topic_2";
+		private double m_rate = 100;
+		private long m_durationSeconds = 30;
+		private long m_warmupSeconds = 5;
+		private int[] m_concurrencies = { 1 };
+		private int[] m_payloadSizes = { 64 };
+		private long m_timeoutMs = 5000;
+		private RequestResponseClient.ReplyMode m_replyMode = RequestResponseClient.ReplyMode.DirectReplyTo;
+		private String m_format = "json";
+		private boolean m_loopback = false;
+		
+		
+		private Options()
+		{
+			// Empty ctor body
+		}
+		
+		private static Options parse(String[] args)
+		{
+			Options options = new Options();
+			
+			for (int i = 0; i < args.length; ++i)
+			{
+				String name = args[i];
+				
+				if (name.equals("--loopback"))
+				{
+					options.m_loopback = true;
+					continue;
+				}
+				
+				if (i + 1 >= args.length)
+				{
+					throw new IllegalArgumentException("Missing value for " + name);
+				}
+				
+				String value = args[++i];
+				
+				try
+				{
+					switch (name)
+					{
+					case "--host": options.m_host = value; break;
+					case "--user": options.m_user = value; break;
+					case "--password": options.m_password = value; break;
+					case "--exchange": options.m_exchange = value; break;
+					case "--topic": options.m_topic = value; break;
+					case "--rate": options.m_rate = Double.parseDouble(value); break;
+					case "--duration": options.m_durationSeconds = Long.parseLong(value); break;
+					case "--warmup": options.m_warmupSeconds = Long.parseLong(value); break;
+					case "--concurrency": options.m_concurrencies = parseList(value); break;
+					case "--payload": options.m_payloadSizes = parseList(value); break;
+					case "--timeout": options.m_timeoutMs = Long.parseLong(value); break;
+					case "--reply-mode": options.m_replyMode = RequestResponseClient.ReplyMode.valueOf(value); break;
+					case "--format": options.m_format = value.toLowerCase(Locale.ROOT); break;
+					default: throw new IllegalArgumentException("Unknown option " + name);
+					}
+				}
+				catch (NumberFormatException e)
+				{
+					throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+				}
+			}
+			
+			options.validate();
+			return options;
+		}
+		
+		private static int[] parseList(String value)
+		{
+			String[] parts = value.split(",");
+			int[] retval = new int[parts.length];
+			
+			for (int i = 0; i < parts.length; ++i)
+			{
+				retval[i] = Integer.parseInt(parts[i].trim());
+			}
+			
+			return retval;
+		}
+		
+		private void validate()
+		{
+			if (!m_loopback && (m_host == null || m_user == null || m_password == null))
+			{
+				throw new IllegalArgumentException("Give --host, --user and a password, or --loopback");
+			}
+			
+			if (m_rate <= 0 || m_durationSeconds <= 0 || m_warmupSeconds < 0 || m_timeoutMs <= 0)
+			{
+				throw new IllegalArgumentException("The rate, duration and timeout must be positive");
+			}
+			
+			for (int concurrency : m_concurrencies)
+			{
+				if (concurrency <= 0)
+				{
+					throw new IllegalArgumentException("The concurrency must be positive");
+				}
+			}
+			
+			for (int size : m_payloadSizes)
+			{
+				if (size < 0)
+				{
+					throw new IllegalArgumentException("The payload size cannot be negative");
+				}
+			}
+			
+			if (!m_format.equals("json") && !m_format.equals("csv"))
+			{
+				throw new IllegalArgumentException("The format must be json or csv");
+			}
+		}
+	}
+}
@@ -0,0 +1,360 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.rabbitmq.client.Channel;
+
+/**
+ * Tests ChannelPublisher with a channel that records the operations.
+ * @author Petri Kannisto
+ */
+public class ChannelPublisherTest
+{
+	private static final long WAIT_MS = 5000;
+	
+	@Test
+	public void performsOperationsInOrder() throws Exception
+	{
+		RecordingChannel channel = new RecordingChannel();
+		ChannelPublisher publisher = ChannelPublisher.acquire(channel.m_proxy);
+		
+		publisher.publish("exc", "first", null, new byte[0], null);
+		publisher.ack(5);
+		publisher.nack(6, true);
+		publisher.publish("exc", "second", null, new byte[0], null);
+		
+		channel.awaitCount(4);
+		assertEquals(Arrays.asList("publish first", "ack 5", "nack 6 true", "publish second"), channel.getOperations());
+		
+		publisher.release();
+	}
+	
+	@Test
+	public void notifiesFailureHandler() throws Exception
+	{
+		RecordingChannel channel = new RecordingChannel();
+		ChannelPublisher publisher = ChannelPublisher.acquire(channel.m_proxy);
+		AtomicReference<Exception> failure = new AtomicReference<>(null);
+		CountDownLatch failed = new CountDownLatch(1);
+		
+		publisher.publish("exc", RecordingChannel.FAILING_KEY, null, new byte[0], e ->
+		{
+			failure.set(e);
+			failed.countDown();
+		});
+		publisher.publish("exc", "after", null, new byte[0], null);
+		
+		assertTrue(failed.await(WAIT_MS, TimeUnit.MILLISECONDS));
+		assertTrue(failure.get() instanceof IOException);
+		
+		// The failure does not stop the publisher
+		channel.awaitCount(1);
+		assertEquals(Arrays.asList("publish after"), channel.getOperations());
+		
+		publisher.release();
+	}
+	
+	@Test
+	public void sharedUntilLastRelease() throws Exception
+	{
+		RecordingChannel channel = new RecordingChannel();
+		ChannelPublisher publisher = ChannelPublisher.acquire(channel.m_proxy);
+		assertSame(publisher, ChannelPublisher.acquire(channel.m_proxy));
+		
+		publisher.release();
+		publisher.publish("exc", "still-running", null, new byte[0], null);
+		channel.awaitCount(1);
+		
+		publisher.release();
+		expectReleased(publisher);
+		
+		// A new publisher is created for the channel
+		ChannelPublisher another = ChannelPublisher.acquire(channel.m_proxy);
+		assertTrue(another != publisher);
+		another.release();
+	}
+	
+	@Test
+	public void releasePerformsQueuedOperations() throws Exception
+	{
+		RecordingChannel channel = new RecordingChannel();
+		channel.block();
+		ChannelPublisher publisher = ChannelPublisher.acquire(channel.m_proxy);
+		
+		for (int i = 0; i < 100; ++i)
+		{
+			publisher.publish("exc", "key", null, new byte[0], null);
+		}
+		
+		publisher.release();
+		expectReleased(publisher);
+		
+		channel.unblock();
+		channel.awaitCount(100);
+	}
+	
+	@Test
+	public void noOperationLostDuringRelease() throws Exception
+	{
+		// Publishing concurrently with the release. Each operation must be
+		// either rejected or performed.
+		for (int round = 0; round < 100; ++round)
+		{
+			RecordingChannel channel = new RecordingChannel();
+			ChannelPublisher publisher = ChannelPublisher.acquire(channel.m_proxy);
+			AtomicInteger accepted = new AtomicInteger(0);
+			List<Thread> threads = new ArrayList<>();
+			
+			for (int t = 0; t < 4; ++t)
+			{
+				Thread thread = new Thread(() ->
+				{
+					try
+					{
+						while (true)
+						{
+							publisher.publish("exc", "key", null, new byte[0], null);
+							accepted.incrementAndGet();
+						}
+					}
+					catch (IOException e)
+					{} // Released
+				});
+				threads.add(thread);
+				thread.start();
+			}
+			
+			Thread.sleep(1);
+			publisher.release();
+			
+			for (Thread thread : threads)
+			{
+				thread.join(WAIT_MS);
+			}
+			
+			channel.awaitCount(accepted.get());
+		}
+	}
+	
+	@Test
+	public void callersWaitWhileQueueIsFull() throws Exception
+	{
+		RecordingChannel channel = new RecordingChannel();
+		channel.block();
+		ChannelPublisher publisher = ChannelPublisher.acquire(channel.m_proxy);
+		final int total = ChannelPublisher.MAX_QUEUED + 100;
+		AtomicInteger accepted = new AtomicInteger(0);
+		
+		Thread caller = new Thread(() ->
+		{
+			try
+			{
+				for (int i = 0; i < total; ++i)
+				{
+					publisher.publish("exc", "key", null, new byte[0], null);
+					accepted.incrementAndGet();
+				}
+			}
+			catch (IOException e)
+			{} // Unexpected; detected by the assertions below
+		});
+		caller.start();
+		
+		// The thread holds one operation while blocked, and the queue is then full
+		waitUntil(() -> accepted.get() == ChannelPublisher.MAX_QUEUED);
+		Thread.sleep(100);
+		assertEquals(ChannelPublisher.MAX_QUEUED, accepted.get());
+		assertTrue(caller.isAlive());
+		
+		channel.unblock();
+		caller.join(WAIT_MS);
+		assertEquals(total, accepted.get());
+		channel.awaitCount(total);
+		
+		publisher.release();
+	}
+	
+	@Test
+	public void waitingCallerFailsOnRelease() throws Exception
+	{
+		RecordingChannel channel = new RecordingChannel();
+		channel.block();
+		ChannelPublisher publisher = ChannelPublisher.acquire(channel.m_proxy);
+		AtomicReference<Exception> failure = new AtomicReference<>(null);
+		
+		Thread caller = new Thread(() ->
+		{
+			try
+			{
+				while (true)
+				{
+					publisher.publish("exc", "key", null, new byte[0], null);
+				}
+			}
+			catch (IOException e)
+			{
+				failure.set(e);
+			}
+		});
+		caller.start();
+		
+		// Waiting until the caller waits for room
+		waitUntil(() -> caller.getState() == Thread.State.WAITING);
+		
+		publisher.release();
+		caller.join(WAIT_MS);
+		assertTrue(failure.get() instanceof IOException);
+		
+		channel.unblock();
+	}
+	
+	private static void expectReleased(ChannelPublisher publisher)
+	{
+		try
+		{
+			publisher.publish("exc", "key", null, new byte[0], null);
+			fail("Expected an exception");
+		}
+		catch (IOException e)
+		{} // Expected
+	}
+	
+	private static void waitUntil(java.util.function.BooleanSupplier condition) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + WAIT_MS;
+		
+		while (!condition.getAsBoolean())
+		{
+			if (System.currentTimeMillis() > deadline)
+			{
+				fail("Timed out");
+			}
+			
+			Thread.sleep(1);
+		}
+	}
+	
+	/**
+	 * A channel that records the operations performed on it.
+	 */
+	private static final class RecordingChannel
+	{
+		// Publishing with this routing key fails
+		private static final String FAILING_KEY = "fail";
+		
+		private final Channel m_proxy;
+		private final List<String> m_operations = new ArrayList<>();
+		private volatile CountDownLatch m_gate = new CountDownLatch(0);
+		
+		
+		private RecordingChannel()
+		{
+			m_proxy = (Channel)Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[] { Channel.class },
+					(proxy, method, args) ->
+			{
+				switch (method.getName())
+				{
+				case "basicPublish":
+					m_gate.await();
+					
+					if (FAILING_KEY.equals(args[1]))
+					{
+						throw new IOException("Publishing failed");
+					}
+					
+					record("publish " + args[1]);
+					return null;
+				
+				case "basicAck":
+					record("ack " + args[0]);
+					return null;
+				
+				case "basicNack":
+					record("nack " + args[0] + " " + args[2]);
+					return null;
+				
+				case "getChannelNumber":
+					return 1;
+				
+				case "isOpen":
+					return true;
+				
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				
+				case "equals":
+					return proxy == args[0];
+				
+				default:
+					return null;
+				}
+			});
+		}
+		
+		private void block()
+		{
+			m_gate = new CountDownLatch(1);
+		}
+		
+		private void unblock()
+		{
+			m_gate.countDown();
+		}
+		
+		private synchronized void record(String operation)
+		{
+			m_operations.add(operation);
+			notifyAll();
+		}
+		
+		private synchronized List<String> getOperations()
+		{
+			return new ArrayList<>(m_operations);
+		}
+		
+		private synchronized void awaitCount(int count) throws InterruptedException
+		{
+			long deadline = System.currentTimeMillis() + WAIT_MS;
+			
+			while (m_operations.size() < count)
+			{
+				long remaining = deadline - System.currentTimeMillis();
+				
+				if (remaining <= 0)
+				{
+					fail("Expected " + count + " operations, got " + m_operations.size());
+				}
+				
+				wait(remaining);
+			}
+			
+			assertEquals(count, m_operations.size());
+		}
+	}
+}
@@ -0,0 +1,168 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests ConcurrentLongMap.
+ * @author Petri Kannisto
+ */
+public class ConcurrentLongMapTest
+{
+	@Test
+	public void putGetRemove()
+	{
+		ConcurrentLongMap<String> map = new ConcurrentLongMap<>();
+		
+		assertNull(map.put(1, "a"));
+		assertNull(map.put(-1, "b"));
+		assertEquals("a", map.put(1, "c")); // Replaces
+		assertEquals(2, map.size());
+		
+		assertEquals("c", map.get(1));
+		assertEquals("b", map.get(-1));
+		assertNull(map.get(2));
+		
+		assertEquals("c", map.remove(1));
+		assertNull(map.remove(1));
+		assertNull(map.get(1));
+		assertEquals(1, map.size());
+	}
+	
+	@Test
+	public void removeInInsertionOrder()
+	{
+		// As the pending requests are removed; the keys are sequential
+		ConcurrentLongMap<Long> map = new ConcurrentLongMap<>();
+		
+		for (long i = 0; i < 10000; ++i)
+		{
+			map.put(i, i);
+		}
+		
+		for (long i = 0; i < 10000; ++i)
+		{
+			assertEquals(Long.valueOf(i), map.remove(i));
+			
+			// The entries shifted backwards must remain reachable
+			if (i + 1 < 10000)
+			{
+				assertEquals(Long.valueOf(i + 1), map.get(i + 1));
+			}
+		}
+		
+		assertEquals(0, map.size());
+	}
+	
+	@Test
+	public void randomOperationsMatchHashMap()
+	{
+		// The keys come from a small range, so the tables are dense and the
+		// probe sequences overlap, which exercises the backward shift on removal
+		Random random = new Random(12345);
+		ConcurrentLongMap<Integer> map = new ConcurrentLongMap<>();
+		HashMap<Long, Integer> expected = new HashMap<>();
+		
+		for (int i = 0; i < 200000; ++i)
+		{
+			long key = random.nextInt(2000);
+			
+			switch (random.nextInt(3))
+			{
+			case 0:
+				assertEquals(expected.put(key, i), map.put(key, i));
+				break;
+			case 1:
+				assertEquals(expected.remove(key), map.remove(key));
+				break;
+			default:
+				assertEquals(expected.get(key), map.get(key));
+				break;
+			}
+		}
+		
+		assertEquals(expected.size(), map.size());
+		
+		for (Map.Entry<Long, Integer> entry : expected.entrySet())
+		{
+			assertEquals(entry.getValue(), map.get(entry.getKey()));
+		}
+		
+		assertEquals(new HashSet<>(expected.values()), new HashSet<>(map.values()));
+	}
+	
+	@Test
+	public void concurrentPutAndRemove() throws InterruptedException
+	{
+		ConcurrentLongMap<Long> map = new ConcurrentLongMap<>();
+		final int threadCount = 8;
+		final int perThread = 20000;
+		List<Thread> threads = new ArrayList<>();
+		List<Throwable> errors = new ArrayList<>();
+		
+		for (int t = 0; t < threadCount; ++t)
+		{
+			final long base = (long)t * perThread;
+			
+			Thread thread = new Thread(() ->
+			{
+				try
+				{
+					// Each thread adds its keys and removes every other one
+					for (long i = base; i < base + perThread; ++i)
+					{
+						map.put(i, i);
+					}
+					
+					for (long i = base; i < base + perThread; i += 2)
+					{
+						assertEquals(Long.valueOf(i), map.remove(i));
+					}
+				}
+				catch (Throwable e)
+				{
+					synchronized (errors)
+					{
+						errors.add(e);
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+		
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertEquals(threadCount * perThread / 2, map.size());
+		
+		for (long i = 0; i < (long)threadCount * perThread; ++i)
+		{
+			assertEquals(i % 2 == 0 ? null : Long.valueOf(i), map.get(i));
+		}
+	}
+}
@@ -0,0 +1,156 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Tests HashedWheelTimer. The tick is short, so the tests take little time.
+ * @author Petri Kannisto
+ */
+public class HashedWheelTimerTest
+{
+	private static final long TICK_MS = 5;
+	
+	@Test
+	public void expiresAfterDelay() throws InterruptedException
+	{
+		HashedWheelTimer timer = new HashedWheelTimer("test-timer", TICK_MS, TimeUnit.MILLISECONDS, 8);
+		CountDownLatch expired = new CountDownLatch(1);
+		AtomicLong expiredAt = new AtomicLong(0);
+		long start = System.nanoTime();
+		
+		timer.newTimeout(() ->
+		{
+			expiredAt.set(System.nanoTime());
+			expired.countDown();
+		}, 50, TimeUnit.MILLISECONDS);
+		
+		assertTrue(expired.await(5, TimeUnit.SECONDS));
+		
+		// The accuracy is one tick
+		long elapsedMs = TimeUnit.NANOSECONDS.toMillis(expiredAt.get() - start);
+		assertTrue("Expired after " + elapsedMs + " ms", elapsedMs >= 50 - TICK_MS);
+	}
+	
+	@Test
+	public void expiresAfterMultipleRounds() throws InterruptedException
+	{
+		// The delay spans several rounds of a wheel of four buckets
+		HashedWheelTimer timer = new HashedWheelTimer("test-timer", TICK_MS, TimeUnit.MILLISECONDS, 4);
+		CountDownLatch expired = new CountDownLatch(1);
+		long start = System.nanoTime();
+		
+		timer.newTimeout(expired::countDown, 120, TimeUnit.MILLISECONDS);
+		
+		assertTrue(expired.await(5, TimeUnit.SECONDS));
+		
+		long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("Expired after " + elapsedMs + " ms", elapsedMs >= 120 - TICK_MS);
+	}
+	
+	@Test
+	public void nonPositiveDelayExpiresOnNextTick() throws InterruptedException
+	{
+		HashedWheelTimer timer = new HashedWheelTimer("test-timer", TICK_MS, TimeUnit.MILLISECONDS, 8);
+		CountDownLatch expired = new CountDownLatch(2);
+		
+		timer.newTimeout(expired::countDown, 0, TimeUnit.MILLISECONDS);
+		timer.newTimeout(expired::countDown, -100, TimeUnit.MILLISECONDS);
+		
+		assertTrue(expired.await(5, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void cancelledTimeoutDoesNotExpire() throws InterruptedException
+	{
+		HashedWheelTimer timer = new HashedWheelTimer("test-timer", TICK_MS, TimeUnit.MILLISECONDS, 8);
+		AtomicInteger expiredCount = new AtomicInteger(0);
+		CountDownLatch other = new CountDownLatch(1);
+		
+		HashedWheelTimer.Timeout timeout = timer.newTimeout(expiredCount::incrementAndGet, 30, TimeUnit.MILLISECONDS);
+		assertTrue(timeout.cancel());
+		assertFalse(timeout.cancel()); // Cancelled already
+		
+		// Once a later timeout has expired, the cancelled one would have as well
+		timer.newTimeout(other::countDown, 60, TimeUnit.MILLISECONDS);
+		assertTrue(other.await(5, TimeUnit.SECONDS));
+		assertEquals(0, expiredCount.get());
+	}
+	
+	@Test
+	public void cancelAfterExpiryFails() throws InterruptedException
+	{
+		HashedWheelTimer timer = new HashedWheelTimer("test-timer", TICK_MS, TimeUnit.MILLISECONDS, 8);
+		CountDownLatch expired = new CountDownLatch(1);
+		
+		HashedWheelTimer.Timeout timeout = timer.newTimeout(expired::countDown, 10, TimeUnit.MILLISECONDS);
+		
+		assertTrue(expired.await(5, TimeUnit.SECONDS));
+		assertFalse(timeout.cancel());
+	}
+	
+	@Test
+	public void veryLongDelayDoesNotExpire() throws InterruptedException
+	{
+		HashedWheelTimer timer = new HashedWheelTimer("test-timer", TICK_MS, TimeUnit.MILLISECONDS, 8);
+		AtomicInteger expiredCount = new AtomicInteger(0);
+		CountDownLatch other = new CountDownLatch(1);
+		
+		// The deadline saturates instead of overflowing to the past
+		timer.newTimeout(expiredCount::incrementAndGet, Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		timer.newTimeout(expiredCount::incrementAndGet, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		
+		timer.newTimeout(other::countDown, 50, TimeUnit.MILLISECONDS);
+		assertTrue(other.await(5, TimeUnit.SECONDS));
+		assertEquals(0, expiredCount.get());
+	}
+	
+	@Test
+	public void manyTimeoutsExpireOnce() throws InterruptedException
+	{
+		HashedWheelTimer timer = new HashedWheelTimer("test-timer", TICK_MS, TimeUnit.MILLISECONDS, 16);
+		final int count = 10000;
+		AtomicInteger expiredCount = new AtomicInteger(0);
+		CountDownLatch expired = new CountDownLatch(count / 2);
+		
+		for (int i = 0; i < count; ++i)
+		{
+			HashedWheelTimer.Timeout timeout = timer.newTimeout(() ->
+			{
+				expiredCount.incrementAndGet();
+				expired.countDown();
+			}, i % 100, TimeUnit.MILLISECONDS);
+			
+			// Cancelling every other one
+			if (i % 2 == 1)
+			{
+				assertTrue(timeout.cancel());
+			}
+		}
+		
+		assertTrue(expired.await(5, TimeUnit.SECONDS));
+		
+		// No more expirations after a while
+		Thread.sleep(150);
+		assertEquals(count / 2, expiredCount.get());
+	}
+}
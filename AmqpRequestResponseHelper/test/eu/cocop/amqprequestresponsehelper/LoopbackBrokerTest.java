@@ -0,0 +1,359 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+
+/**
+ * Tests LoopbackBroker. The broker delivers in the publishing thread, so the
+ * deliveries can be checked as soon as publishing returns.
+ * @author Petri Kannisto
+ */
+public class LoopbackBrokerTest
+{
+	@Test
+	public void routesByTopic() throws IOException
+	{
+		ITransport transport = new LoopbackBroker().createTransport();
+		transport.declareTopicExchange("ex");
+		RecordingConsumer single = consume(transport, "single", "a.*");
+		RecordingConsumer multi = consume(transport, "multi", "a.#");
+		RecordingConsumer exact = consume(transport, "exact", "a.b.c");
+		
+		publish(transport, "ex", "a.b", "1");
+		publish(transport, "ex", "a.b.c", "2");
+		publish(transport, "ex", "a", "3"); // "#" matches zero words as well
+		publish(transport, "ex", "x.y", "4");
+		
+		assertEquals(Arrays.asList("1"), single.getBodies());
+		assertEquals(Arrays.asList("1", "2", "3"), multi.getBodies());
+		assertEquals(Arrays.asList("2"), exact.getBodies());
+		
+		transport.close();
+	}
+	
+	@Test
+	public void defaultExchangeRoutesByQueueName() throws IOException
+	{
+		ITransport transport = new LoopbackBroker().createTransport();
+		transport.declareQueue("q", null);
+		RecordingConsumer consumer = new RecordingConsumer(transport, false);
+		transport.consume("q", true, 0, consumer);
+		
+		publish(transport, "", "q", "1");
+		publish(transport, "", "missing", "2"); // Discarded
+		
+		assertEquals(Arrays.asList("1"), consumer.getBodies());
+		
+		transport.close();
+	}
+	
+	@Test(expected = IOException.class)
+	public void publishToUndeclaredExchangeFails() throws IOException
+	{
+		ITransport transport = new LoopbackBroker().createTransport();
+		publish(transport, "missing", "key", "1");
+	}
+	
+	@Test
+	public void sharesQueueInRoundRobin() throws IOException
+	{
+		ITransport transport = new LoopbackBroker().createTransport();
+		transport.declareQueue("q", null);
+		RecordingConsumer first = new RecordingConsumer(transport, false);
+		RecordingConsumer second = new RecordingConsumer(transport, false);
+		transport.consume("q", true, 0, first);
+		transport.consume("q", true, 0, second);
+		
+		for (int i = 0; i < 10; ++i)
+		{
+			publish(transport, "", "q", Integer.toString(i));
+		}
+		
+		assertEquals(5, first.getBodies().size());
+		assertEquals(5, second.getBodies().size());
+		
+		transport.close();
+	}
+	
+	@Test
+	public void prefetchLimitsUnacknowledgedDeliveries() throws IOException
+	{
+		ITransport transport = new LoopbackBroker().createTransport();
+		transport.declareQueue("q", null);
+		RecordingConsumer consumer = new RecordingConsumer(transport, false);
+		transport.consume("q", false, 2, consumer);
+		
+		for (int i = 0; i < 5; ++i)
+		{
+			publish(transport, "", "q", Integer.toString(i));
+		}
+		
+		assertEquals(Arrays.asList("0", "1"), consumer.getBodies());
+		
+		// Each acknowledgement makes room for one more
+		transport.ack(consumer.getDeliveryTag(0));
+		assertEquals(Arrays.asList("0", "1", "2"), consumer.getBodies());
+		
+		// Unknown tags are ignored
+		transport.ack(12345);
+		assertEquals(3, consumer.getBodies().size());
+		
+		transport.close();
+	}
+	
+	@Test
+	public void nackRequeuesOrDiscards() throws IOException
+	{
+		ITransport transport = new LoopbackBroker().createTransport();
+		transport.declareQueue("q", null);
+		RecordingConsumer consumer = new RecordingConsumer(transport, false);
+		transport.consume("q", false, 1, consumer);
+		
+		publish(transport, "", "q", "1");
+		transport.nack(consumer.getDeliveryTag(0), true);
+		
+		// Redelivered with another tag
+		assertEquals(Arrays.asList("1", "1"), consumer.getBodies());
+		assertTrue(consumer.getDeliveryTag(0) != consumer.getDeliveryTag(1));
+		
+		transport.nack(consumer.getDeliveryTag(1), false);
+		publish(transport, "", "q", "2");
+		assertEquals(Arrays.asList("1", "1", "2"), consumer.getBodies());
+		
+		transport.close();
+	}
+	
+	@Test
+	public void deliversHigherPriorityFirst() throws IOException
+	{
+		ITransport transport = new LoopbackBroker().createTransport();
+		HashMap<String, Object> arguments = new HashMap<>();
+		arguments.put("x-max-priority", 9);
+		transport.declareQueue("q", arguments);
+		
+		// The messages wait in the queue until consumed
+		for (int priority : new int[] { 1, 9, 0, 5 })
+		{
+			BasicProperties props = new BasicProperties.Builder().priority(priority).build();
+			transport.publish("", "q", props, toBytes(Integer.toString(priority)), null);
+		}
+		
+		RecordingConsumer consumer = new RecordingConsumer(transport, false);
+		transport.consume("q", true, 0, consumer);
+		
+		assertEquals(Arrays.asList("9", "5", "1", "0"), consumer.getBodies());
+		
+		transport.close();
+	}
+	
+	@Test
+	public void cancelStopsDeliveries() throws IOException
+	{
+		ITransport transport = new LoopbackBroker().createTransport();
+		transport.declareQueue("q", null);
+		RecordingConsumer consumer = new RecordingConsumer(transport, false);
+		String consumerTag = transport.consume("q", true, 0, consumer);
+		assertEquals(consumerTag, consumer.m_consumeOkTag);
+		
+		transport.cancel(consumerTag);
+		publish(transport, "", "q", "1");
+		assertEquals(0, consumer.getBodies().size());
+		
+		try
+		{
+			transport.cancel(consumerTag);
+			fail("Expected an exception");
+		}
+		catch (IOException e)
+		{} // Expected
+		
+		transport.close();
+	}
+	
+	@Test
+	public void closeRequeuesUnacknowledgedMessages() throws IOException
+	{
+		LoopbackBroker broker = new LoopbackBroker();
+		ITransport closing = broker.createTransport();
+		ITransport remaining = broker.createTransport();
+		closing.declareQueue("q", null);
+		
+		RecordingConsumer first = new RecordingConsumer(closing, false);
+		closing.consume("q", false, 1, first);
+		publish(remaining, "", "q", "1");
+		assertEquals(Arrays.asList("1"), first.getBodies());
+		
+		RecordingConsumer second = new RecordingConsumer(remaining, false);
+		remaining.consume("q", false, 1, second);
+		assertEquals(0, second.getBodies().size());
+		
+		closing.close();
+		assertTrue(first.m_shutdown);
+		assertEquals(Arrays.asList("1"), second.getBodies());
+		
+		try
+		{
+			publish(closing, "", "q", "2");
+			fail("Expected an exception");
+		}
+		catch (IOException e)
+		{} // Expected
+		
+		remaining.close();
+		assertTrue(second.m_shutdown);
+	}
+	
+	@Test
+	public void repliesViaDirectReplyTo() throws IOException
+	{
+		LoopbackBroker broker = new LoopbackBroker();
+		ITransport client = broker.createTransport();
+		ITransport server = broker.createTransport();
+		server.declareQueue("rpc", null);
+		
+		// The server replies to the queue named in the request
+		RecordingConsumer serverConsumer = new RecordingConsumer(server, true);
+		server.consume("rpc", true, 0, serverConsumer);
+		
+		RecordingConsumer replyConsumer = new RecordingConsumer(client, false);
+		client.consume(ITransport.DIRECT_REPLY_TO_QUEUE, true, 0, replyConsumer);
+		
+		BasicProperties props = new BasicProperties.Builder().replyTo(ITransport.DIRECT_REPLY_TO_QUEUE).build();
+		client.publish("", "rpc", props, toBytes("ping"), null);
+		
+		assertEquals(Arrays.asList("ping"), serverConsumer.getBodies());
+		assertEquals(Arrays.asList("reply to ping"), replyConsumer.getBodies());
+		
+		// Only one auto-ack consumer per transport
+		try
+		{
+			client.consume(ITransport.DIRECT_REPLY_TO_QUEUE, true, 0, new RecordingConsumer(client, false));
+			fail("Expected an exception");
+		}
+		catch (IOException e)
+		{} // Expected
+		
+		client.close();
+		server.close();
+	}
+	
+	private static RecordingConsumer consume(ITransport transport, String queue, String routingKey) throws IOException
+	{
+		transport.declareQueue(queue, null);
+		transport.bindQueue(queue, "ex", routingKey);
+		RecordingConsumer consumer = new RecordingConsumer(transport, false);
+		transport.consume(queue, true, 0, consumer);
+		return consumer;
+	}
+	
+	private static void publish(ITransport transport, String exchange, String routingKey, String body) throws IOException
+	{
+		transport.publish(exchange, routingKey, new BasicProperties.Builder().build(), toBytes(body), null);
+	}
+	
+	private static byte[] toBytes(String s)
+	{
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * A consumer that records the deliveries.
+	 */
+	private static final class RecordingConsumer implements ITransport.IConsumer
+	{
+		private final ITransport m_transport;
+		private final boolean m_reply;
+		private final List<String> m_bodies = Collections.synchronizedList(new ArrayList<>());
+		private final List<Long> m_deliveryTags = Collections.synchronizedList(new ArrayList<>());
+		private volatile String m_consumeOkTag = null;
+		private volatile boolean m_shutdown = false;
+		
+		
+		/**
+		 * Constructor.
+		 * @param transport Transport.
+		 * @param reply Whether to reply to each delivery.
+		 */
+		private RecordingConsumer(ITransport transport, boolean reply)
+		{
+			m_transport = transport;
+			m_reply = reply;
+		}
+		
+		@Override
+		public void handleConsumeOk(String consumerTag)
+		{
+			m_consumeOkTag = consumerTag;
+		}
+		
+		@Override
+		public void handleDelivery(String consumerTag, long deliveryTag, BasicProperties properties, byte[] body)
+		{
+			String bodyString = new String(body, StandardCharsets.UTF_8);
+			m_bodies.add(bodyString);
+			m_deliveryTags.add(deliveryTag);
+			
+			if (m_reply)
+			{
+				try
+				{
+					m_transport.publish("", properties.getReplyTo(), new BasicProperties.Builder().build(),
+							toBytes("reply to " + bodyString), null);
+				}
+				catch (IOException e)
+				{
+					throw new RuntimeException(e);
+				}
+			}
+		}
+		
+		@Override
+		public void handleCancel(String consumerTag)
+		{
+			// Not expected
+		}
+		
+		@Override
+		public void handleShutdown(String consumerTag, String reason, boolean initiatedByApplication)
+		{
+			m_shutdown = true;
+		}
+		
+		private List<String> getBodies()
+		{
+			synchronized (m_bodies)
+			{
+				return new ArrayList<>(m_bodies);
+			}
+		}
+		
+		private long getDeliveryTag(int index)
+		{
+			return m_deliveryTags.get(index);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the correlation of requests and responses: creating a correlation ID, parsing
+ * it back and finding the pending request. The random UUID, matched with string equality,
+ * is the approach used before SequenceCorrelationIdStrategy and serves as the baseline.
+ * Run with multiple threads (such as "-t 4") to measure contention.
+ * @author Petri Kannisto
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CorrelationIdBenchmark
+{
+	// Shared by the threads like in a reply router
+	private final ICorrelationIdStrategy m_strategy = new SequenceCorrelationIdStrategy();
+	private final AtomicLong m_sequence = new AtomicLong(-1);
+	private final ConcurrentLongMap<Object> m_pendingRequests = new ConcurrentLongMap<>();
+	private final Object m_request = new Object();
+	
+	
+	/**
+	 * Creates a correlation ID with the default strategy and parses it back.
+	 * @return Sequence number.
+	 */
+	@Benchmark
+	public long createAndParseSequence()
+	{
+		String id = m_strategy.createCorrelationId(m_sequence.incrementAndGet());
+		
+		// A copy like the one received from the network
+		String received = new String(id.toCharArray());
+		return m_strategy.parseSequence(received);
+	}
+	
+	/**
+	 * Creates a random UUID and compares it like a received one.
+	 * @return Length of the ID if it matched.
+	 */
+	@Benchmark
+	public int createAndCompareUuid()
+	{
+		String id = UUID.randomUUID().toString();
+		String received = new String(id.toCharArray());
+		return received.equals(id) ? id.length() : 0;
+	}
+	
+	/**
+	 * Registers a pending request and finds it as if its response arrived.
+	 * @return Pending request.
+	 */
+	@Benchmark
+	public Object addAndRemovePendingRequest()
+	{
+		long sequence = m_sequence.incrementAndGet();
+		m_pendingRequests.put(sequence, m_request);
+		return m_pendingRequests.remove(sequence);
+	}
+}
@@ -0,0 +1,108 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+
+/**
+ * Measures the cost of notifying the request listeners of a server as the number of
+ * listeners grows. The listeners do not respond, so nothing is published.
+ * @author Petri Kannisto
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class ListenerFanOutBenchmark
+{
+	/**
+	 * The number of listeners.
+	 */
+	@Param({ "1", "4", "16" })
+	public int listenerCount;
+	
+	private ITransport m_transport = null;
+	private RequestResponseServer m_server = null;
+	private final BasicProperties m_props = new BasicProperties.Builder().correlationId("benchmark").build();
+	private final byte[] m_payload = new byte[64];
+	private long m_deliveryTag = 0;
+	
+	// Written by the listeners so that the JIT cannot remove them
+	private long m_received = 0;
+	
+	
+	/**
+	 * Creates the server and the listeners.
+	 * @throws IOException Thrown if an error occurs.
+	 */
+	@Setup
+	public void setUp() throws IOException
+	{
+		m_transport = new LoopbackBroker().createTransport();
+		m_server = new RequestResponseServer(m_transport, "benchmark-exchange", "benchmark-server",
+				new ServerOptions());
+		
+		for (int i = 0; i < listenerCount; ++i)
+		{
+			// Distinct objects; the listeners are a set
+			m_server.addRequestReceivedEventListener(new IRequestReceivedEventListener()
+			{
+				@Override
+				public void requestReceived(Object source, RequestReceivedEvent ev)
+				{
+					m_received += ev.getMessage().length;
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Closes the server.
+	 */
+	@TearDown
+	public void tearDown()
+	{
+		m_server.close();
+		m_transport.close();
+	}
+	
+	/**
+	 * Dispatches a request to the listeners.
+	 * @return The number of bytes received by the listeners so far.
+	 */
+	@Benchmark
+	public long notifyListeners()
+	{
+		m_server.handleDeliveryImpl(++m_deliveryTag, m_props, m_payload);
+		return m_received;
+	}
+}
@@ -0,0 +1,95 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+
+/**
+ * Measures the construction of the message properties of requests and responses.
+ * The builder without headers is the approach used before the library added headers
+ * and constructed the response properties without a builder, and serves as the baseline.
+ * @author Petri Kannisto
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropertiesBenchmark
+{
+	private static final String CORRELATION_ID = "0123456789abcdef-1f";
+	private static final String REPLY_TO = "topic-benchmark-client";
+	
+	
+	/**
+	 * Creates the properties of a request as the client does.
+	 * @return Properties.
+	 */
+	@Benchmark
+	public BasicProperties requestProperties()
+	{
+		return RequestResponseClient.createRequestProperties(CORRELATION_ID, REPLY_TO, null, 10000, 0);
+	}
+	
+	/**
+	 * Creates the properties of a request of an operation with a priority.
+	 * @return Properties.
+	 */
+	@Benchmark
+	public BasicProperties requestPropertiesWithOperation()
+	{
+		return RequestResponseClient.createRequestProperties(CORRELATION_ID, REPLY_TO, "operation", 10000, 5);
+	}
+	
+	/**
+	 * Creates the properties of a response as the server does.
+	 * @return Properties.
+	 */
+	@Benchmark
+	public BasicProperties responseProperties()
+	{
+		return RequestResponseServer.createResponseProperties(CORRELATION_ID, null);
+	}
+	
+	/**
+	 * Creates the properties of a request with the builder and no headers.
+	 * @return Properties.
+	 */
+	@Benchmark
+	public BasicProperties baselineRequestProperties()
+	{
+		return new BasicProperties.Builder().correlationId(CORRELATION_ID).replyTo(REPLY_TO).build();
+	}
+	
+	/**
+	 * Creates the properties of a response with the builder.
+	 * @return Properties.
+	 */
+	@Benchmark
+	public BasicProperties baselineResponseProperties()
+	{
+		return new BasicProperties.Builder().correlationId(CORRELATION_ID).build();
+	}
+}
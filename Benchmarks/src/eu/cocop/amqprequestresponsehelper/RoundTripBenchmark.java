@@ -0,0 +1,135 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the round trip of a request from a client to a server and back over
+ * LoopbackBroker. Run with multiple threads (such as "-t 4") to measure concurrent
+ * requests on the same client.
+ * @author Petri Kannisto
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoundTripBenchmark
+{
+	private static final String EXCHANGE = "benchmark-exchange";
+	private static final String TOPIC = "benchmark-server";
+	private static final long TIMEOUT = 10000;
+	private static final int BATCH_SIZE = 16;
+	
+	/**
+	 * The size of each request and response in bytes.
+	 */
+	@Param({ "16", "1024", "65536" })
+	public int payloadSize;
+	
+	private ITransport m_serverTransport = null;
+	private ITransport m_clientTransport = null;
+	private RequestResponseServer m_server = null;
+	private RequestResponseClient m_client = null;
+	private byte[] m_payload = null;
+	private List<byte[]> m_batch = null;
+	
+	
+	/**
+	 * Creates the server and the client.
+	 * @throws IOException Thrown if an error occurs.
+	 */
+	@Setup
+	public void setUp() throws IOException
+	{
+		LoopbackBroker broker = new LoopbackBroker();
+		m_serverTransport = broker.createTransport();
+		m_clientTransport = broker.createTransport();
+		
+		// The server responds with the request
+		m_server = new RequestResponseServer(m_serverTransport, EXCHANGE, TOPIC, new ServerOptions());
+		m_server.addRequestReceivedEventListener((source, ev) ->
+		{
+			try
+			{
+				m_server.sendResponse(ev, ev.getMessage());
+			}
+			catch (IOException e)
+			{
+				throw new IllegalStateException(e);
+			}
+		});
+		
+		m_client = new RequestResponseClient(m_clientTransport, EXCHANGE, TOPIC,
+				RequestResponseClient.ReplyMode.ReplyQueue);
+		m_payload = new byte[payloadSize];
+		m_batch = new ArrayList<>(BATCH_SIZE);
+		
+		for (int i = 0; i < BATCH_SIZE; ++i)
+		{
+			m_batch.add(m_payload);
+		}
+	}
+	
+	/**
+	 * Closes the server and the client.
+	 */
+	@TearDown
+	public void tearDown()
+	{
+		m_client.close();
+		m_server.close();
+		m_clientTransport.close();
+		m_serverTransport.close();
+	}
+	
+	/**
+	 * Performs a request and waits for the response.
+	 * @return Response.
+	 * @throws Exception Thrown if the request fails.
+	 */
+	@Benchmark
+	public byte[] performRequest() throws Exception
+	{
+		return m_client.performRequest(m_payload, TIMEOUT);
+	}
+	
+	/**
+	 * Performs a pipelined batch of requests. Divide the time by the batch size (16)
+	 * to compare with performRequest.
+	 * @return Responses.
+	 * @throws Exception Thrown if a request fails.
+	 */
+	@Benchmark
+	public List<byte[]> performRequests() throws Exception
+	{
+		return m_client.performRequests(m_batch, TIMEOUT);
+	}
+}
@@ -0,0 +1,140 @@
+//
+// Please make sure to read and understand the files README.md and LICENSE.txt.
+// 
+// This file was prepared in the research project COCOP (Coordinating
+// Optimisation of Complex Industrial Processes).
+// https://cocop-spire.eu/
+//
+// Author: Petri Kannisto, Tampere University, Finland
+// File created: 10/2026
+// Last modified: 10/2026
+
+package eu.cocop.amqprequestresponsehelper;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+
+/**
+ * Measures how many requests a server dispatches per second. The requests are passed
+ * directly to handleDeliveryImpl, as the consumer does, and each is responded to. The
+ * responses and acks go to LoopbackBroker, which discards them, as no queue has the name
+ * of the response address and the delivery tags are unknown. LoopbackBroker delivers in
+ * the publishing thread, so no publisher thread lags behind the measurement.
+ * A consumer receives one delivery at a time, so this runs in one thread.
+ * @author Petri Kannisto
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class ServerDispatchBenchmark
+{
+	private static final String EXCHANGE = "benchmark-exchange";
+	private static final String TOPIC = "benchmark-server";
+	private static final String OPERATION = "benchmark-operation";
+	
+	/**
+	 * What receives the requests: "Listener", "OperationHandler" or "AsyncHandler".
+	 */
+	@Param({ "Listener", "OperationHandler", "AsyncHandler" })
+	public String receiver;
+	
+	/**
+	 * Whether the server acks each request.
+	 */
+	@Param({ "false", "true" })
+	public boolean manualAck;
+	
+	private ITransport m_transport = null;
+	private RequestResponseServer m_server = null;
+	private BasicProperties m_props = null;
+	private final byte[] m_payload = new byte[64];
+	private long m_deliveryTag = 0;
+	
+	
+	/**
+	 * Creates the server.
+	 * @throws IOException Thrown if an error occurs.
+	 */
+	@Setup
+	public void setUp() throws IOException
+	{
+		m_transport = new LoopbackBroker().createTransport();
+		m_server = new RequestResponseServer(m_transport, EXCHANGE, TOPIC,
+				new ServerOptions().setManualAck(manualAck));
+		
+		switch (receiver)
+		{
+		case "Listener":
+			m_server.addRequestReceivedEventListener(this::respond);
+			break;
+		case "OperationHandler":
+			m_server.setOperationHandler(OPERATION, this::respond);
+			break;
+		case "AsyncHandler":
+			m_server.setAsyncRequestHandler(ev -> CompletableFuture.completedFuture(ev.getMessage()));
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown receiver " + receiver);
+		}
+		
+		// No deadline, so the requests never expire
+		m_props = new BasicProperties.Builder()
+				.correlationId("benchmark")
+				.replyTo("benchmark-client")
+				.headers(Collections.<String, Object>singletonMap(MessageHeaders.OPERATION, OPERATION))
+				.build();
+	}
+	
+	/**
+	 * Closes the server.
+	 */
+	@TearDown
+	public void tearDown()
+	{
+		m_server.close();
+		m_transport.close();
+	}
+	
+	/**
+	 * Dispatches a request.
+	 */
+	@Benchmark
+	public void dispatch()
+	{
+		m_server.handleDeliveryImpl(++m_deliveryTag, m_props, m_payload);
+	}
+	
+	private void respond(Object source, RequestReceivedEvent ev)
+	{
+		try
+		{
+			m_server.sendResponse(ev, ev.getMessage());
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+}